@@ -1,10 +1,18 @@
 package ime.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+
+import ime.model.FilterBackend;
+import ime.model.ImageRegistry;
+import ime.model.ImageStorage;
+import ime.model.MappedImageStore;
 import ime.model.MIME;
 import ime.model.MIMEImp;
+import ime.model.RowBands;
 import ime.service.ImageIOLoader;
 import ime.service.ImageIOSaver;
 import ime.service.ImageLoader;
@@ -13,9 +21,55 @@ import ime.service.ImageSaver;
 @Configuration
 public class AppConfig {
 
+  @Value("${ime.image.storage:heap}")
+  private String imageStorage;
+
+  @Value("${ime.store.directory:}")
+  private String storeDirectory;
+
+  @Value("${ime.registry.max-bytes:536870912}")
+  private long registryMaxBytes;
+
+  @Value("${ime.registry.spill-directory:}")
+  private String registrySpillDirectory;
+
+  @Value("${ime.parallelism:0}")
+  private int parallelism;
+
+  @Value("${ime.parallel.threshold:262144}")
+  private int parallelThreshold;
+
+  @Value("${ime.filter.backend:vector}")
+  private String filterBackend;
+
   @Bean
-  public MIME mimeModel() {
-    return new MIMEImp();
+  public FilterBackend<?> filterBackend() {
+    FilterBackend<?> backend = FilterBackend.fromName(filterBackend);
+    FilterBackend.setShared(backend);
+    return backend;
+  }
+
+  @Bean(destroyMethod = "close")
+  public RowBands rowBands() {
+    RowBands rowBands = new RowBands(parallelism, parallelThreshold);
+    RowBands.setShared(rowBands);
+    return rowBands;
+  }
+
+  @Bean
+  public ImageRegistry imageRegistry() {
+    Path spillDirectory = registrySpillDirectory.isBlank() ? null : Path.of(registrySpillDirectory);
+    return new ImageRegistry(registryMaxBytes, spillDirectory);
+  }
+
+  // The model filters through the shared backend and row bands, taking them as parameters makes
+  // them created before the model and destroyed after it, so they outlive the model's close
+  @Bean(destroyMethod = "close")
+  public MIME mimeModel(ImageRegistry imageRegistry, FilterBackend<?> backend,
+                        RowBands rowBands) {
+    MappedImageStore imageStore = storeDirectory.isBlank() ? null
+            : new MappedImageStore(Path.of(storeDirectory));
+    return new MIMEImp(ImageStorage.fromName(imageStorage), imageRegistry, imageStore);
   }
 
   @Bean
@@ -13,6 +13,7 @@ import org.springframework.core.io.Resource;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.io.IOException;
 
@@ -79,6 +80,28 @@ public class ImageManipulationController {
             .body(imageData);
   }
 
+  @DeleteMapping("/remove")
+  public ResponseEntity<String> removeImage(@RequestParam("imageName") String imageName) {
+    imageService.remove(imageName);
+    return ResponseEntity.ok("Image removed: " + imageName);
+  }
+
+  @GetMapping("/metrics")
+  public ResponseEntity<Map<String, Long>> registryMetrics() {
+    return ResponseEntity.ok(imageService.getRegistryMetrics());
+  }
+
+  @GetMapping("/histogram")
+  public ResponseEntity<Map<String, long[]>> histogram(@RequestParam("imageName") String imageName) {
+    return ResponseEntity.ok(imageService.getHistogram(imageName));
+  }
+
+  @GetMapping("/stats")
+  public ResponseEntity<Map<String, Map<String, Double>>> statistics(
+          @RequestParam("imageName") String imageName) {
+    return ResponseEntity.ok(imageService.getStatistics(imageName));
+  }
+
   @PostMapping("/brighten")
   public ResponseEntity<String> brightenImage(@RequestParam("imageName") String imageName,
                                               @RequestParam("scale") int scale) {
@@ -122,6 +145,29 @@ public class ImageManipulationController {
     return ResponseEntity.ok("Image blurred and saved as: " + resultName);
   }
 
+  @PostMapping("/box-blur")
+  public ResponseEntity<String> boxBlurImage(@RequestParam("imageName") String imageName,
+                                             @RequestParam("radius") int radius) {
+    String resultName = imageService.boxBlur(imageName, radius);
+    return ResponseEntity.ok("Image box blurred and saved as: " + resultName);
+  }
+
+  @PostMapping("/gaussian-blur")
+  public ResponseEntity<String> gaussianBlurImage(@RequestParam("imageName") String imageName,
+                                                  @RequestParam("sigma") double sigma) {
+    String resultName = imageService.gaussianBlur(imageName, sigma);
+    return ResponseEntity.ok("Image gaussian blurred and saved as: " + resultName);
+  }
+
+  @PostMapping("/convolve")
+  public ResponseEntity<String> convolveImage(@RequestParam("imageName") String imageName,
+                                              @RequestParam("kernel") String kernel,
+                                              @RequestParam(value = "edges", defaultValue = "zero")
+                                              String edges) {
+    String resultName = imageService.convolve(imageName, kernel, edges);
+    return ResponseEntity.ok("Kernel applied and saved as: " + resultName);
+  }
+
   @PostMapping("/sharpen")
   public ResponseEntity<String> sharpenImage(@RequestParam("imageName") String imageName) {
     String resultName = imageService.sharpen(imageName);
@@ -135,8 +181,11 @@ public class ImageManipulationController {
   }
 
   @PostMapping("/dither")
-  public ResponseEntity<String> ditherImage(@RequestParam("imageName") String imageName) {
-    String resultName = imageService.dither(imageName);
+  public ResponseEntity<String> ditherImage(@RequestParam("imageName") String imageName,
+                                            @RequestParam(value = "mode", required = false)
+                                            String mode) {
+    String resultName = mode == null ? imageService.dither(imageName)
+            : imageService.dither(imageName, mode);
     return ResponseEntity.ok("Image dithered and saved as: " + resultName);
   }
 
@@ -0,0 +1,331 @@
+package ime.model;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Abstract base of the images, holds the dimensions and the max value of an image and implements
+ * the Pixel based methods on top of the primitive channel accessors of the storage.
+ * Pixels returned from an image are snapshots of its channel values, setting a pixel copies its
+ * channel values into the storage.
+ */
+abstract class AbstractImage implements Image {
+  protected final int height;
+  protected final int width;
+  protected final int max;
+  private final AtomicInteger holders = new AtomicInteger(1);
+  private volatile boolean hashed;
+  private long contentHash;
+  private volatile ImageStatistics statistics;
+
+  /**
+   * Constructs the common state of an image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   */
+  protected AbstractImage(int height, int width, int max) {
+    if (height < 0 || width < 0 || max < 0) {
+      throw new IllegalArgumentException("Please provide valid dimensions for the image");
+    }
+    this.height = height;
+    this.width = width;
+    this.max = max;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getMax() {
+    return this.max;
+  }
+
+  /**
+   * Validates that the given indices are inside the image.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   */
+  protected void checkBounds(int x, int y) {
+    if (x < 0 || x >= height || y < 0 || y >= width) {
+      throw new IllegalArgumentException("Please specify the Pixel indices in the bounds.");
+    }
+  }
+
+  /**
+   * Validates that the given row is inside the image.
+   *
+   * @param x representing the row
+   */
+  protected void checkRow(int x) {
+    if (x < 0 || x >= height) {
+      throw new IllegalArgumentException("Please specify the row index in the bounds.");
+    }
+  }
+
+  /**
+   * Clamps a channel value between 0 and the max of the image.
+   *
+   * @param value the value to be clamped
+   * @return the clamped value
+   */
+  protected int clamp(int value) {
+    if (value < 0) {
+      return 0;
+    }
+    return Math.min(value, this.max);
+  }
+
+  @Override
+  public Pixel getPixel(int x, int y) {
+    checkBounds(x, y);
+    return new RGBPixel(getRed(x, y), getGreen(x, y), getBlue(x, y), this.max);
+  }
+
+  @Override
+  public void setPixel(int x, int y, Pixel p) {
+    setRGB(x, y, p.getRed(), p.getGreen(), p.getBlue());
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    for (int y = 0; y < width; y++) {
+      red[y] = getRed(x, y);
+      green[y] = getGreen(x, y);
+      blue[y] = getBlue(x, y);
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    for (int y = 0; y < width; y++) {
+      setRGB(x, y, red[y], green[y], blue[y]);
+    }
+  }
+
+  @Override
+  public void retain() {
+    holders.incrementAndGet();
+  }
+
+  /**
+   * Retains the image unless it has already been released by all its holders.
+   *
+   * @return true if the image was retained, false if its memory has been freed
+   */
+  boolean tryRetain() {
+    int count = holders.get();
+    while (count > 0) {
+      if (holders.compareAndSet(count, count + 1)) {
+        return true;
+      }
+      count = holders.get();
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of holders of the image, the image is freed once they have all released it.
+   *
+   * @return the number of holders
+   */
+  int holders() {
+    return holders.get();
+  }
+
+  @Override
+  public void release() {
+    if (holders.decrementAndGet() == 0) {
+      free();
+    }
+  }
+
+  /**
+   * Frees the memory held by the image once every holder has released it.
+   */
+  protected void free() {
+    // Images on the heap are reclaimed by the garbage collector
+  }
+
+  /**
+   * Validates that the channels of a pixel of a greyscale image hold the same value.
+   *
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   */
+  static void checkGrey(int red, int green, int blue) {
+    if (red != green || green != blue) {
+      throw new IllegalArgumentException("The channels of a greyscale pixel must be the same");
+    }
+  }
+
+  /**
+   * Gets the number of channel planes the image holds in memory, 1 for a greyscale image whose
+   * channels share a single plane and 3 otherwise.
+   *
+   * @return 1 or 3
+   */
+  int planes() {
+    return 3;
+  }
+
+  /**
+   * Gets the plane holding the samples of a channel of the image row after row, so that channels
+   * can be copied between images in bulk.
+   *
+   * @param channel the channel
+   * @return the plane, or null if the image does not store its channels as planes
+   */
+  MemorySegment plane(Channel channel) {
+    return null;
+  }
+
+  /**
+   * Copies a band of rows of a channel of an image of the same size into the same channel of
+   * this image, plane to plane without going through rows of ints. The planes must hold samples
+   * of the same size and the values of the source must fit in the max of this image.
+   *
+   * @param channel the channel to be copied
+   * @param source  the image whose channel is copied
+   * @param from    first row to be copied
+   * @param to      row after the last row to be copied
+   * @return true if the rows were copied, false if they have to be copied through rows of ints
+   */
+  boolean copyPlane(Channel channel, Image source, int from, int to) {
+    MemorySegment target = plane(channel);
+    MemorySegment plane = source instanceof AbstractImage
+            ? ((AbstractImage) source).plane(channel) : null;
+    if (target == null || plane == null || target.byteSize() != plane.byteSize()
+            || source.getMax() > max || from >= to) {
+      return false;
+    }
+    modified();
+    long rowBytes = target.byteSize() / height;
+    MemorySegment.copy(plane, from * rowBytes, target, from * rowBytes, (to - from) * rowBytes);
+    return true;
+  }
+
+  @Override
+  public Image materialize() {
+    return this;
+  }
+
+  @Override
+  public long contentHash() {
+    if (!hashed) {
+      contentHash = computeHash();
+      hashed = true;
+    }
+    return contentHash;
+  }
+
+  /**
+   * Marks that the pixels of the image are being changed, so that the content hash and the
+   * statistics are computed again. Storages call it whenever they write pixels.
+   */
+  protected void modified() {
+    if (hashed) {
+      hashed = false;
+    }
+    if (statistics != null) {
+      statistics = null;
+    }
+  }
+
+  /**
+   * Gets the histograms and the statistics of the image, computed on first use and kept until
+   * the pixels of the image are changed.
+   *
+   * @return the statistics of the image
+   */
+  ImageStatistics statistics() {
+    ImageStatistics result = statistics;
+    if (result == null) {
+      result = ImageStatistics.of(this);
+      statistics = result;
+    }
+    return result;
+  }
+
+  /**
+   * Computes a 64-bit hash of the dimensions, the max and the pixels of the image in a single
+   * streaming pass over its rows.
+   *
+   * @return the content hash
+   */
+  private long computeHash() {
+    long hash = 0x9E3779B97F4A7C15L * (31L * (31L * height + width) + max);
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRow(i, red, green, blue);
+      for (int j = 0; j < width; j++) {
+        long pixel = red[j] * 0x9E3779B97F4A7C15L ^ green[j] * 0xC2B2AE3D27D4EB4FL
+                ^ blue[j] * 0x165667B19E3779F9L;
+        hash = Long.rotateLeft(hash ^ pixel, 31) * 0x9E3779B97F4A7C15L;
+      }
+    }
+    // Final mix so that every bit of the hash depends on every pixel
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  @Override
+  public Image applyFilter(Filter filter) {
+    return filter.apply(this);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (!(o instanceof AbstractImage)) {
+      return false;
+    }
+
+    Image that = (Image) o;
+
+    if (this.height != that.getHeight() || this.max != that.getMax()
+            || this.width != that.getWidth()) {
+      return false;
+    }
+
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int[] thatRed = new int[width];
+    int[] thatGreen = new int[width];
+    int[] thatBlue = new int[width];
+    for (int i = 0; i < height; i++) {
+      this.getRow(i, red, green, blue);
+      that.getRow(i, thatRed, thatGreen, thatBlue);
+      for (int j = 0; j < width; j++) {
+        if (red[j] != thatRed[j] || green[j] != thatGreen[j] || blue[j] != thatBlue[j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(contentHash());
+  }
+}
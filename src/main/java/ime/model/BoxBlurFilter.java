@@ -0,0 +1,254 @@
+package ime.model;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of Filter that blurs an image with one or more box filters, each pixel taking
+ * the average of the square of (2 * radius + 1)^2 pixels around it. A box is separable, so it is
+ * applied along the rows and then along the columns, and each pass keeps a running sum that
+ * gains the pixel entering the window and loses the pixel leaving it. A pixel costs the same
+ * whatever the radius, unlike a matrix filter whose cost grows with the square of its size.
+ * The passes write into the image of the result and one scratch image of the same storage, the
+ * pass along the columns streams each band of rows through a ring of the rows under the box.
+ * Several boxes applied one after the other approach a Gaussian blur.
+ * The pixels beyond the edges of the image are given by the edge mode of the filter, every pass
+ * rounds its averages to the nearest integer.
+ */
+class BoxBlurFilter implements Filter {
+  // Boxes stacked to approach a Gaussian, three are within a few percent of it
+  private static final int GAUSSIAN_BOXES = 3;
+  /**
+   * Largest radius of a box. A band of rows blurred along the columns keeps the 2 * radius + 1
+   * rows under the box, about 6 KB per pixel of width at this radius.
+   */
+  static final int MAX_RADIUS = 255;
+  /**
+   * Largest sigma of a Gaussian blur, that of a stack of boxes of the largest radius.
+   */
+  static final double MAX_SIGMA = Math.sqrt(GAUSSIAN_BOXES
+          * ((2.0 * MAX_RADIUS + 1) * (2.0 * MAX_RADIUS + 1) - 1) / 12);
+
+  private final int[] radii;
+  private final EdgeMode edges;
+
+  /**
+   * Constructs a box blur given the radius of each of its boxes.
+   *
+   * @param edges the pixels beyond the edges of the image
+   * @param radii the radius of each box, applied one after the other
+   * @throws IllegalArgumentException if a radius is negative or larger than MAX_RADIUS
+   */
+  BoxBlurFilter(EdgeMode edges, int... radii) {
+    for (int radius : radii) {
+      if (radius < 0) {
+        throw new IllegalArgumentException("The radius of a blur cannot be negative");
+      }
+      if (radius > MAX_RADIUS) {
+        throw new IllegalArgumentException("The radius of a blur is at most " + MAX_RADIUS);
+      }
+    }
+    this.edges = edges;
+    this.radii = radii.clone();
+  }
+
+  /**
+   * Gets the stack of boxes whose blur approaches a Gaussian of the given standard deviation.
+   * Boxes of two consecutive odd sizes are mixed so that the variance of the stack, the sum of
+   * the variances (size^2 - 1) / 12 of the boxes, is as close as possible to sigma^2.
+   *
+   * @param sigma the standard deviation of the Gaussian, in pixels
+   * @param edges the pixels beyond the edges of the image
+   * @return the stacked box blur
+   * @throws IllegalArgumentException if sigma is not positive or larger than MAX_SIGMA
+   */
+  static BoxBlurFilter gaussian(double sigma, EdgeMode edges) {
+    if (!(sigma > 0)) {
+      throw new IllegalArgumentException("The sigma of a Gaussian blur must be positive");
+    }
+    if (sigma > MAX_SIGMA) {
+      throw new IllegalArgumentException("The sigma of a Gaussian blur is at most "
+              + Math.floor(MAX_SIGMA));
+    }
+    int n = GAUSSIAN_BOXES;
+    double variance = 12 * sigma * sigma;
+    int lower = (int) Math.floor(Math.sqrt(variance / n + 1));
+    if (lower % 2 == 0) {
+      lower--;
+    }
+    int upper = lower + 2;
+    // Number of boxes of the lower size
+    long lowerBoxes = Math.round((variance - n * lower * lower - 4.0 * n * lower - 3.0 * n)
+            / (-4.0 * lower - 4));
+    int[] radii = new int[n];
+    for (int b = 0; b < n; b++) {
+      radii[b] = ((b < lowerBoxes ? lower : upper) - 1) / 2;
+    }
+    return new BoxBlurFilter(edges, radii);
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    ImageStorage storage = inputImage.getStorage();
+    RowBands bands = RowBands.shared();
+    int padding = Arrays.stream(radii).max().orElse(0);
+    int[] vertical = Arrays.stream(radii).filter(radius -> radius > 0).toArray();
+
+    // The passes go back and forth between the result and a scratch image, starting from the one
+    // that makes the last pass write into the result. The averages of a pass are within the max
+    // value, so an image holds them as they are.
+    Image newImage = storage.create(height, width, max);
+    Image scratch = vertical.length == 0 ? null : storage.create(height, width, max);
+    Image[] images = {newImage, scratch};
+    try {
+      // Along the rows as they are read
+      Image first = images[vertical.length % 2];
+      bands.forEach(height, width, (from, to) -> {
+        int[] red = new int[width];
+        int[] green = new int[width];
+        int[] blue = new int[width];
+        int[] padded = new int[width + 2 * padding];
+        for (int i = from; i < to; i++) {
+          inputImage.getRow(i, red, green, blue);
+          for (int radius : radii) {
+            blurRow(red, padded, width, radius);
+            blurRow(green, padded, width, radius);
+            blurRow(blue, padded, width, radius);
+          }
+          first.setRow(i, red, green, blue);
+        }
+      });
+
+      // Then along the columns, each band of rows keeping a running sum for every column
+      for (int b = 0; b < vertical.length; b++) {
+        int radius = vertical[b];
+        Image source = images[(vertical.length - b) % 2];
+        Image target = images[(vertical.length - b - 1) % 2];
+        bands.forEach(height, width, (from, to) -> blurColumns(source, target, radius, from, to));
+      }
+    } finally {
+      if (scratch != null) {
+        scratch.release();
+      }
+    }
+    return newImage;
+  }
+
+  /**
+   * Blurs a row of a channel in place with a box of the given radius.
+   *
+   * @param row    the values of the row, replaced by their averages
+   * @param padded buffer of at least width + 2 * radius values
+   * @param width  number of pixels in the row
+   * @param radius radius of the box
+   */
+  private void blurRow(int[] row, int[] padded, int width, int radius) {
+    if (radius == 0) {
+      return;
+    }
+    for (int k = 0; k < width + 2 * radius; k++) {
+      int index = edges.map(k - radius, width);
+      padded[k] = index < 0 ? 0 : row[index];
+    }
+    int size = 2 * radius + 1;
+    long sum = 0;
+    for (int k = 0; k < size; k++) {
+      sum += padded[k];
+    }
+    row[0] = average(sum, size);
+    for (int y = 1; y < width; y++) {
+      sum += padded[y + size - 1] - padded[y - 1];
+      row[y] = average(sum, size);
+    }
+  }
+
+  /**
+   * Blurs a band of rows of an image along the columns with a box of the given radius. The rows
+   * under the box are read once each and kept in a ring of 2 * radius + 1 rows indexed by
+   * row % size, the running sums of the columns gain the row entering the box and lose the row
+   * leaving it. The sums start from the rows around the first row of the band, so the bands are
+   * independent of each other.
+   *
+   * @param source the image to be blurred
+   * @param target the image receiving the blurred rows
+   * @param radius radius of the box
+   * @param from   first row of the band
+   * @param to     row after the last row of the band
+   */
+  private void blurColumns(Image source, Image target, int radius, int from, int to) {
+    int width = source.getWidth();
+    int size = 2 * radius + 1;
+    // The red, green and blue values of the rows under the box
+    int[][][] ring = new int[size][3][width];
+    long[][] sums = new long[3][width];
+    int[][] out = new int[3][width];
+    for (int k = from - radius; k <= from + radius; k++) {
+      int[][] entering = ring[Math.floorMod(k, size)];
+      read(source, k, entering);
+      add(sums, entering, 1);
+    }
+    for (int i = from; i < to; i++) {
+      for (int c = 0; c < 3; c++) {
+        for (int y = 0; y < width; y++) {
+          out[c][y] = average(sums[c][y], size);
+        }
+      }
+      target.setRow(i, out[0], out[1], out[2]);
+      if (i + 1 < to) {
+        // The row entering the box takes the place of the row leaving it in the ring
+        int[][] slot = ring[Math.floorMod(i - radius, size)];
+        add(sums, slot, -1);
+        read(source, i + radius + 1, slot);
+        add(sums, slot, 1);
+      }
+    }
+  }
+
+  /**
+   * Reads the row of an image that a row at the given index takes, as given by the edge mode.
+   *
+   * @param source the image
+   * @param index  index of the row, may be beyond the edges
+   * @param row    receives the red, green and blue values of the row, 0 beyond the edges
+   */
+  private void read(Image source, int index, int[][] row) {
+    int mapped = edges.map(index, source.getHeight());
+    if (mapped < 0) {
+      for (int[] channel : row) {
+        Arrays.fill(channel, 0);
+      }
+    } else {
+      source.getRow(mapped, row[0], row[1], row[2]);
+    }
+  }
+
+  /**
+   * Adds or subtracts a row to the running sums of the columns.
+   *
+   * @param sums the running sums of the red, green and blue values
+   * @param row  the red, green and blue values of the row
+   * @param sign 1 to add the row, -1 to subtract it
+   */
+  private static void add(long[][] sums, int[][] row, int sign) {
+    for (int c = 0; c < 3; c++) {
+      long[] sum = sums[c];
+      int[] values = row[c];
+      for (int y = 0; y < sum.length; y++) {
+        sum[y] += sign * values[y];
+      }
+    }
+  }
+
+  /**
+   * Rounds the average of a window to the nearest integer.
+   *
+   * @param sum  the sum of the window, not negative
+   * @param size number of pixels of the window
+   * @return the rounded average
+   */
+  private static int average(long sum, int size) {
+    return (int) ((sum + size / 2) / size);
+  }
+}
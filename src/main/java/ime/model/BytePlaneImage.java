@@ -0,0 +1,125 @@
+package ime.model;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Implementation of Image for images whose max value fits in 8 bits.
+ * The pixels are stored as three byte planes, one per channel, laid out row after row, so an
+ * image costs three bytes per pixel.
+ */
+class BytePlaneImage extends AbstractImage {
+  private final byte[] red;
+  private final byte[] green;
+  private final byte[] blue;
+
+  /**
+   * Constructor to create an 8-bit image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image, at most 255
+   */
+  public BytePlaneImage(int height, int width, int max) {
+    super(height, width, max);
+    if (max > 0xFF) {
+      throw new IllegalArgumentException("Max value of an 8-bit image can be at most 255");
+    }
+    this.red = new byte[height * width];
+    this.green = new byte[height * width];
+    this.blue = new byte[height * width];
+  }
+
+  /**
+   * Gets the index of a pixel in the channel planes.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the index in the planes
+   */
+  private int index(int x, int y) {
+    checkBounds(x, y);
+    return x * width + y;
+  }
+
+  @Override
+  MemorySegment plane(Channel channel) {
+    switch (channel) {
+      case RED:
+        return MemorySegment.ofArray(red);
+      case GREEN:
+        return MemorySegment.ofArray(green);
+      default:
+        return MemorySegment.ofArray(blue);
+    }
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return ImageStorage.HEAP;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return this.red[index(x, y)] & 0xFF;
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return this.green[index(x, y)] & 0xFF;
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return this.blue[index(x, y)] & 0xFF;
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    modified();
+    int index = index(x, y);
+    this.red[index] = (byte) clamp(red);
+    this.green[index] = (byte) clamp(green);
+    this.blue[index] = (byte) clamp(blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      red[y] = this.red[offset + y] & 0xFF;
+      green[y] = this.green[offset + y] & 0xFF;
+      blue[y] = this.blue[offset + y] & 0xFF;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    modified();
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      this.red[offset + y] = (byte) clamp(red[y]);
+      this.green[offset + y] = (byte) clamp(green[y]);
+      this.blue[offset + y] = (byte) clamp(blue[y]);
+    }
+  }
+
+  /**
+   * Sets rows of this image to the rows of an image of the same size whose channels are looked
+   * up in a table, plane to plane without going through rows of ints.
+   *
+   * @param source the image whose channels are looked up
+   * @param table  the resulting value of every byte, already clamped to the max of this image
+   * @param from   first row to be set
+   * @param to     row after the last row to be set
+   */
+  void lookup(BytePlaneImage source, byte[] table, int from, int to) {
+    modified();
+    for (int i = from * width; i < to * width; i++) {
+      red[i] = table[source.red[i] & 0xFF];
+      green[i] = table[source.green[i] & 0xFF];
+      blue[i] = table[source.blue[i] & 0xFF];
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package ime.model;
+
+/**
+ * Represents a channel of an RGB pixel.
+ */
+enum Channel {
+  RED,
+  GREEN,
+  BLUE
+}
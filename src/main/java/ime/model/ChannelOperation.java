@@ -0,0 +1,120 @@
+package ime.model;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A point operation that maps each channel of a pixel on its own through the same function, such
+ * as brighten. Consecutive channel operations fold into one, whose channels are looked up in a
+ * table built once per image instead of being computed for every pixel.
+ */
+class ChannelOperation implements PointOperation {
+  // Tables for larger max values would cost more than computing the functions
+  private static final int MAX_TABLE_SIZE = 0xFFFF + 1;
+
+  private final IntUnaryOperator[] functions;
+
+  /**
+   * Constructs a channel operation given its function.
+   *
+   * @param function the function applied on each channel value
+   */
+  public ChannelOperation(IntUnaryOperator function) {
+    this(new IntUnaryOperator[]{function});
+  }
+
+  private ChannelOperation(IntUnaryOperator[] functions) {
+    this.functions = functions;
+  }
+
+  /**
+   * Folds this operation and the given one into a single operation that applies both one after
+   * the other, clamping the values in between as an image would.
+   *
+   * @param next the operation applied after this one
+   * @return the folded operation
+   */
+  public ChannelOperation andThen(ChannelOperation next) {
+    IntUnaryOperator[] folded = Arrays.copyOf(functions, functions.length + next.functions.length);
+    System.arraycopy(next.functions, 0, folded, functions.length, next.functions.length);
+    return new ChannelOperation(folded);
+  }
+
+  /**
+   * Applies the functions of the operation on a single value.
+   *
+   * @param value a channel value between 0 and max
+   * @param max   the max value of the image
+   * @return the resulting value, not clamped
+   */
+  private int applyAll(int value, int max) {
+    value = functions[0].applyAsInt(value);
+    for (int i = 1; i < functions.length; i++) {
+      value = functions[i].applyAsInt(Math.max(0, Math.min(value, max)));
+    }
+    return value;
+  }
+
+  /**
+   * Gets an operation that applies this operation through a lookup table for images of the given
+   * max value, the table is built once and used for every pixel of the image.
+   *
+   * @param max the max value of the image
+   * @return the operation using a lookup table, or this operation if the table would be too large
+   */
+  @Override
+  public PointOperation withTable(int max) {
+    if (max >= MAX_TABLE_SIZE) {
+      return this;
+    }
+    int[] table = new int[max + 1];
+    for (int value = 0; value <= max; value++) {
+      table[value] = applyAll(value, max);
+    }
+    return new Table(table);
+  }
+
+  /**
+   * A channel operation looked up in a table, every channel value is replaced by its entry.
+   */
+  static final class Table implements PointOperation {
+    private final int[] table;
+
+    /**
+     * Constructs the operation given its table.
+     *
+     * @param table the resulting value of every channel value, not clamped
+     */
+    private Table(int[] table) {
+      this.table = table;
+    }
+
+    /**
+     * Gets the resulting value of a channel value.
+     *
+     * @param value a channel value between 0 and max
+     * @return the resulting value, not clamped
+     */
+    int get(int value) {
+      return table[value];
+    }
+
+    @Override
+    public void apply(int[] red, int[] green, int[] blue, int width, int max) {
+      for (int y = 0; y < width; y++) {
+        red[y] = table[red[y]];
+        green[y] = table[green[y]];
+        blue[y] = table[blue[y]];
+      }
+    }
+  }
+
+  @Override
+  public void apply(int[] red, int[] green, int[] blue, int width, int max) {
+    for (int y = 0; y < width; y++) {
+      red[y] = applyAll(red[y], max);
+      green[y] = applyAll(green[y], max);
+      blue[y] = applyAll(blue[y], max);
+    }
+  }
+}
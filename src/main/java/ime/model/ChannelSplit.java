@@ -0,0 +1,120 @@
+package ime.model;
+
+/**
+ * Splits an image into the greyscale images of its three channels in a single pass, every row
+ * of the source is read once and written to the three images. The split is made when the first
+ * of the three images is needed, and the images are created as grey images of the storage of
+ * the source so that they hold a single plane each where the storage allows it.
+ * The split owns the images of the channels and hands each of them out retained to the lazy image
+ * of its channel. It releases them once each of the three lazy images has either been evaluated
+ * or been freed, so that the channels nobody claims are freed as well.
+ */
+class ChannelSplit {
+  private final Image source;
+  private Image[] channels;
+  private int pending = Channel.values().length;
+
+  /**
+   * Constructs the split of an image, nothing is computed until a channel is needed.
+   *
+   * @param source the image to be split
+   */
+  ChannelSplit(Image source) {
+    this.source = source;
+  }
+
+  /**
+   * Gets the lazy greyscale image of a channel of the source, the three lazy images share the
+   * split. Each of them holds the source until it is evaluated.
+   *
+   * @param channel the channel of the image
+   * @return the lazy image of the channel
+   */
+  LazyImage lazyChannel(Channel channel) {
+    return new LazyChannel(channel);
+  }
+
+  /**
+   * Gets the greyscale image of a channel of the source, splitting the source on first use.
+   * The image is retained for the lazy image of the channel.
+   *
+   * @param channel the channel of the image
+   * @return the retained image of the channel
+   */
+  private synchronized Image channel(Channel channel) {
+    if (channels == null) {
+      channels = split(source);
+    }
+    Image result = channels[channel.ordinal()];
+    result.retain();
+    done();
+    return result;
+  }
+
+  /**
+   * Records that the lazy image of a channel no longer needs the split, the images of the
+   * channels are released once none of the lazy images needs them.
+   */
+  private synchronized void done() {
+    if (--pending == 0 && channels != null) {
+      for (Image image : channels) {
+        image.release();
+      }
+      channels = null;
+    }
+  }
+
+  /**
+   * Splits an image into the greyscale images of its channels, bands of rows run in parallel.
+   *
+   * @param source the image to be split
+   * @return the images of the red, green and blue channels
+   */
+  static Image[] split(Image source) {
+    int height = source.getHeight();
+    int width = source.getWidth();
+    int max = source.getMax();
+    ImageStorage storage = source.getStorage();
+    Image red = storage.createGrey(height, width, max);
+    Image green = storage.createGrey(height, width, max);
+    Image blue = storage.createGrey(height, width, max);
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      int[] reds = new int[width];
+      int[] greens = new int[width];
+      int[] blues = new int[width];
+      for (int i = from; i < to; i++) {
+        source.getRow(i, reds, greens, blues);
+        red.setRow(i, reds, reds, reds);
+        green.setRow(i, greens, greens, greens);
+        blue.setRow(i, blues, blues, blues);
+      }
+    });
+    return new Image[]{red, green, blue};
+  }
+
+  /**
+   * The lazy image of a channel of the split, which tells the split when it is freed without
+   * having been evaluated.
+   */
+  private final class LazyChannel extends LazyImage {
+
+    /**
+     * Constructs the lazy image of a channel of the source.
+     *
+     * @param channel the channel of the image
+     */
+    private LazyChannel(Channel channel) {
+      super(source.getHeight(), source.getWidth(), source.getMax(), source.getStorage(),
+              () -> channel(channel), source);
+    }
+
+    @Override
+    protected synchronized void free() {
+      boolean evaluated = isEvaluated();
+      super.free();
+      if (!evaluated) {
+        done();
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package ime.model;
+
+/**
+ * A greyscale view of an image made of a single channel of the source, the channel is shown in
+ * all three channels of the view.
+ */
+class ChannelView extends ImageView {
+  private final Channel channel;
+
+  /**
+   * Constructs a greyscale view of a channel of an image.
+   *
+   * @param source  the image whose channel is shown
+   * @param channel the channel to be shown
+   */
+  public ChannelView(Image source, Channel channel) {
+    super(source, source.getHeight(), source.getWidth());
+    this.channel = channel;
+  }
+
+  /**
+   * Gets the value of the shown channel of a pixel of the source.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the value of the channel
+   */
+  private int value(int x, int y) {
+    switch (channel) {
+      case RED:
+        return source.getRed(x, y);
+      case GREEN:
+        return source.getGreen(x, y);
+      default:
+        return source.getBlue(x, y);
+    }
+  }
+
+  @Override
+  protected int viewRed(int x, int y) {
+    return value(x, y);
+  }
+
+  @Override
+  protected int viewGreen(int x, int y) {
+    return value(x, y);
+  }
+
+  @Override
+  protected int viewBlue(int x, int y) {
+    return value(x, y);
+  }
+
+  @Override
+  protected void viewRow(int x, int[] red, int[] green, int[] blue) {
+    source.getRow(x, red, green, blue);
+    int[] values = channel == Channel.RED ? red : channel == Channel.GREEN ? green : blue;
+    for (int y = 0; y < width; y++) {
+      red[y] = values[y];
+      green[y] = values[y];
+      blue[y] = values[y];
+    }
+  }
+}
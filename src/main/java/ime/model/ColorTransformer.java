@@ -1,6 +1,6 @@
 package ime.model;
 
-import java.util.InputMismatchException;
+import ime.model.FilterBackend.Weights;
 
 /**
  * Implementation of Filter that applies Color transformation.
@@ -9,10 +9,9 @@ import java.util.InputMismatchException;
  * Greyscale, Sepia and others are such examples.
  * Given the kernel while creating an object of this class will apply the color transformation to
  * the image when its apply method is called on using the kernel. Will return a color transformed
- * image.
+ * image. Being a point filter, it can be fused with the point filters applied before or after it.
  */
-public class ColorTransformer implements Filter {
-  private final double[][] kernel;
+public class ColorTransformer extends PointFilter {
 
   /**
    * Constructing a ColorTransformer of a specific kernel.
@@ -20,69 +19,44 @@ public class ColorTransformer implements Filter {
    * @param kernel a 2D matrix representing the kernel that is used for color transformation.
    */
   public ColorTransformer(double[][] kernel) {
-    if (validateKernel(kernel)) {
-      this.kernel = kernel;
-    } else {
-      throw new IllegalArgumentException("Please provide valid kernel to apply on RGB Pixel");
-    }
+    super(transformation(kernel));
   }
 
   /**
    * Method to validate the kernel. If the kernel is such that it can be applied for color
-   * transformations. Kernel's column length should be same as the number of pixels.
+   * transformations. Kernel should have a row for each channel and its column length should be
+   * same as the number of channels.
    *
    * @param kernel 2D matrix representing the kernel that is used for color transformation.
    * @return boolean based on whether the kernel is valid or not.
    */
-  private boolean validateKernel(double[][] kernel) {
-    return kernel[0].length == 3;
+  private static boolean validateKernel(double[][] kernel) {
+    if (kernel.length < 3) {
+      return false;
+    }
+    for (double[] row : kernel) {
+      if (row.length != 3) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  @Override
-  public Image apply(Image inputImage) {
-    int height = inputImage.getHeight();
-    int width = inputImage.getWidth();
-    int max = inputImage.getMax();
-
-    Image newImage = new RGBImage(height, width, max);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        Pixel rgbP = inputImage.getPixel(i, j);
-        double[][] rgbMatrix = {
-                {rgbP.getRed()},
-                {rgbP.getGreen()},
-                {rgbP.getBlue()}};
-
-        int row1 = kernel.length;
-        int row2 = rgbMatrix.length;
-        int col1 = kernel[0].length;
-        int col2 = rgbMatrix[0].length;
-
-        double[][] result = new double[row1][col2];
-
-        if (col1 == row2) {
-          // Matrix mul is possible
-          for (int x = 0; x < row1; x++) {
-            for (int y = 0; y < col2; y++) {
-              for (int z = 0; z < col1; z++) {
-                result[x][y] += kernel[x][z] * rgbMatrix[z][y];
-              }
-            }
-          }
-        } else {
-          throw new InputMismatchException("Invalid Matrix multiplication");
-        }
-
-        // Now use the resultant matrix to get a new Pixel and insert in the loc
-
-        int red = (int) Math.round(result[0][0]);
-        int green = (int) Math.round(result[1][0]);
-        int blue = (int) Math.round(result[2][0]);
-
-        newImage.setPixel(i, j, new RGBPixel(red, green, blue, max));
-
-      }
+  /**
+   * Gets the point operation that multiplies the kernel with the column vector of the channels of
+   * each pixel.
+   *
+   * @param kernel 2D matrix representing the kernel that is used for color transformation.
+   * @return the point operation of the transformation
+   */
+  private static PointOperation transformation(double[][] kernel) {
+    if (!validateKernel(kernel)) {
+      throw new IllegalArgumentException("Please provide valid kernel to apply on RGB Pixel");
     }
-    return newImage;
+    // Built once, so that a backend converting the weights does it once and not on every row
+    Weights matrix = new Weights(new double[][]{kernel[0].clone(), kernel[1].clone(),
+        kernel[2].clone()});
+    return (red, green, blue, width, max) ->
+            FilterBackend.shared().transform(matrix, red, green, blue, width);
   }
 }
@@ -0,0 +1,90 @@
+package ime.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed index of the images of a session, images are found by their content hash so
+ * that images with the same content, such as the same asset loaded twice or the same result
+ * computed twice, share one image under several names.
+ * The index only refers to the images weakly, it does not hold them: an image leaves the index
+ * once it has been released by its holders.
+ */
+class ContentStore {
+  private final ConcurrentHashMap<Long, Entry> images;
+  private final ReferenceQueue<Image> collected;
+
+  /**
+   * Weak reference to an image of the index that remembers its hash, so that it can be removed
+   * from the index once the image is collected.
+   */
+  private static final class Entry extends WeakReference<Image> {
+    private final long hash;
+
+    /**
+     * Constructs a reference to an image of the index.
+     *
+     * @param image the image
+     * @param hash  the content hash of the image
+     * @param queue the queue the reference is added to once the image is collected
+     */
+    private Entry(Image image, long hash, ReferenceQueue<Image> queue) {
+      super(image, queue);
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Constructs an empty content store.
+   */
+  ContentStore() {
+    this.images = new ConcurrentHashMap<>();
+    this.collected = new ReferenceQueue<>();
+  }
+
+  /**
+   * Gets the image of the index with the same content as the given image, the given image is
+   * added to the index if there is none. When an image with the same content is found it is
+   * retained for the caller, which can then release the given image.
+   *
+   * @param image an image that owns its storage
+   * @return the image of the index with the same content, or the given image
+   */
+  Image intern(Image image) {
+    expunge();
+    long hash = image.contentHash();
+    Image[] result = new Image[1];
+    images.compute(hash, (key, reference) -> {
+      Image stored = reference == null ? null : reference.get();
+      if (stored == image) {
+        result[0] = image;
+        return reference;
+      }
+      if (stored instanceof AbstractImage && ((AbstractImage) stored).tryRetain()) {
+        if (stored.equals(image)) {
+          result[0] = stored;
+          return reference;
+        }
+        // A different image with the same hash, the first one stays in the index
+        stored.release();
+        result[0] = image;
+        return reference;
+      }
+      result[0] = image;
+      return new Entry(image, key, collected);
+    });
+    return result[0];
+  }
+
+  /**
+   * Removes the entries of the images that have been collected.
+   */
+  private void expunge() {
+    Reference<? extends Image> reference;
+    while ((reference = collected.poll()) != null) {
+      images.remove(((Entry) reference).hash, reference);
+    }
+  }
+}
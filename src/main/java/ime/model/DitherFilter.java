@@ -0,0 +1,256 @@
+package ime.model;
+
+/**
+ * Implementation of Filter that dithers an image using Floyd-Steinberg error diffusion.
+ * The image is made grey using the given greyscale filter, each of its pixels is then set to
+ * black or white and the error made is spread onto the neighbouring pixels that are yet to be
+ * processed.
+ * The error only ever reaches the current row and the next one, so the image is dithered as a
+ * stream of rows: two rolling rows of ints hold the grey values with the error spread so far, a
+ * row is read and made grey when it becomes the next row, and written out as soon as it is done.
+ * A point greyscale filter is applied to the rows on the fly, without a grey copy of the image.
+ * Pixels at or below half the max value of the image become 0, the others become the max value.
+ * When the rows are processed in parallel, large images are dithered as a wavefront of tiles:
+ * a pixel only waits for the pixels before it on its row and for the row above up to two pixels
+ * to its right, so tiles of rows skewed by two pixels per row can run at the same time along a
+ * diagonal. Every pixel receives its shares of the error in the same order as on one thread,
+ * so the result is the same.
+ */
+public class DitherFilter implements Filter {
+  private final Filter greyscale;
+
+  /**
+   * Constructs a dither filter.
+   *
+   * @param greyscale the filter that makes the image grey before it is dithered
+   */
+  public DitherFilter(Filter greyscale) {
+    this.greyscale = greyscale;
+  }
+
+  /**
+   * Adds a share of the quantization error to a grey pixel of a row being dithered. The value is
+   * rounded and clamped as it would be if it were stored in an image.
+   *
+   * @param row   the grey values of the row
+   * @param y     column of the pixel
+   * @param error share of the error for the pixel
+   * @param max   the max value of the image
+   */
+  private static void spreadError(int[] row, int y, double error, int max) {
+    int resultantValue = (int) Math.round(row[y] + error);
+    row[y] = Math.max(0, Math.min(resultantValue, max));
+  }
+
+  /**
+   * Dithers a range of pixels of a row, spreading the error onto the rest of the row and onto
+   * the next row.
+   *
+   * @param current the grey values of the row, replaced by the dithered values
+   * @param next    the grey values of the next row, or null for the last row
+   * @param from    first pixel of the range
+   * @param to      pixel after the last one of the range
+   * @param width   number of pixels in a row
+   * @param max     the max value of the image
+   */
+  private static void diffuse(int[] current, int[] next, int from, int to, int width, int max) {
+    int threshold = max / 2;
+    for (int j = from; j < to; j++) {
+      int oldColor = current[j];
+      int newColor = oldColor <= threshold ? 0 : max;
+      int error = oldColor - newColor;
+
+      current[j] = newColor;
+
+      double right = (7.0 / 16) * error;
+      double nextLeft = (3.0 / 16) * error;
+      double below = (5.0 / 16) * error;
+      double nextRight = (1.0 / 16) * error;
+
+      if (j + 1 < width) {
+        spreadError(current, j + 1, right, max);
+      }
+
+      if (next != null && j - 1 >= 0) {
+        spreadError(next, j - 1, nextLeft, max);
+      }
+
+      if (next != null) {
+        spreadError(next, j, below, max);
+      }
+
+      if (next != null && j + 1 < width) {
+        spreadError(next, j + 1, nextRight, max);
+      }
+    }
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+
+    // A point filter makes the rows grey as they are read, any other filter the whole image
+    Image source;
+    PointOperation toGrey;
+    if (greyscale instanceof PointFilter) {
+      source = inputImage;
+      toGrey = ((PointFilter) greyscale).rowOperation(max);
+    } else {
+      source = greyscale.apply(inputImage);
+      toGrey = null;
+    }
+    Image result = inputImage.getStorage().create(height, width, max);
+
+    // Tiles of about a band of pixels, twice as wide as high so that a tile only waits for the
+    // tile above and to its right
+    RowBands bands = RowBands.shared();
+    int tileRows = Math.max(1, (int) Math.sqrt(bands.getThreshold() / 2.0));
+    int tileColumns = 2 * tileRows;
+    if (bands.getParallelism() > 1 && height > tileRows && width > tileColumns) {
+      applyWavefront(source, toGrey, result, bands, tileRows, tileColumns);
+    } else {
+      applyStreaming(source, toGrey, result);
+    }
+    return result;
+  }
+
+  /**
+   * Dithers an image one row after the other, holding only the current and the next row.
+   *
+   * @param source the image to dither
+   * @param toGrey the operation making the rows grey, or null if the image is already grey
+   * @param result the image receiving the dithered rows
+   */
+  private static void applyStreaming(Image source, PointOperation toGrey, Image result) {
+    int height = result.getHeight();
+    int width = result.getWidth();
+    int max = result.getMax();
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int[] current = new int[width];
+    int[] next = new int[width];
+
+    if (height > 0) {
+      readGrey(source, toGrey, 0, current, green, blue, max);
+    }
+    for (int i = 0; i < height; i++) {
+      boolean hasNext = i + 1 < height;
+      if (hasNext) {
+        readGrey(source, toGrey, i + 1, next, green, blue, max);
+      }
+      diffuse(current, hasNext ? next : null, 0, width, width, max);
+      // The dithered row is grey, the same plane is written to every channel
+      result.setRow(i, current, current, current);
+
+      int[] done = current;
+      current = next;
+      next = done;
+    }
+  }
+
+  /**
+   * Dithers an image as a wavefront of tiles run in parallel. The tile (I, b) holds the rows of
+   * the block I of tileRows rows, its k-th row spans the columns b * tileColumns - 2k to
+   * (b + 1) * tileColumns - 2k. It waits for the tile (I, b - 1) to its left and for the tile
+   * (I - 1, b + 1) above, which are both on the diagonal 2I + b - 1, so the tiles of a diagonal
+   * run at the same time once the previous diagonal is done.
+   * The rows being dithered are held in a ring of blocks of rows: the first tile of a block
+   * reads the next block, and the last tile of a block writes it out.
+   *
+   * @param source      the image to dither
+   * @param toGrey      the operation making the rows grey, or null if the image is already grey
+   * @param result      the image receiving the dithered rows
+   * @param bands       the executor running the tiles of a diagonal
+   * @param tileRows    number of rows of a tile
+   * @param tileColumns number of columns of a tile, at least twice the number of rows
+   */
+  private static void applyWavefront(Image source, PointOperation toGrey, Image result,
+                                     RowBands bands, int tileRows, int tileColumns) {
+    int height = result.getHeight();
+    int width = result.getWidth();
+    int max = result.getMax();
+    int rowBlocks = (height + tileRows - 1) / tileRows;
+    int blocks = (width + 2 * (tileRows - 1) + tileColumns - 1) / tileColumns;
+
+    // A block is read two diagonals before its first tile and written after its last one
+    int ringRows = Math.min(rowBlocks, blocks / 2 + 2) * tileRows;
+    int[][] rows = new int[ringRows][width];
+    readBlock(source, toGrey, 0, tileRows, rows, max);
+
+    for (int diagonal = 0; diagonal < 2 * (rowBlocks - 1) + blocks; diagonal++) {
+      int first = Math.max(0, (diagonal - blocks + 2) / 2);
+      int last = Math.min(rowBlocks - 1, diagonal / 2);
+      int level = diagonal;
+      bands.forEach(last - first + 1, (long) tileRows * tileColumns, (from, to) -> {
+        for (int block = first + from; block < first + to; block++) {
+          int column = level - 2 * block;
+          if (column == 0 && block + 1 < rowBlocks) {
+            readBlock(source, toGrey, block + 1, tileRows, rows, max);
+          }
+          for (int k = 0; k < tileRows; k++) {
+            int i = block * tileRows + k;
+            if (i >= height) {
+              break;
+            }
+            int start = Math.max(0, column * tileColumns - 2 * k);
+            int end = Math.min(width, (column + 1) * tileColumns - 2 * k);
+            int[] next = i + 1 < height ? rows[(i + 1) % ringRows] : null;
+            diffuse(rows[i % ringRows], next, start, end, width, max);
+          }
+          if (column == blocks - 1) {
+            for (int i = block * tileRows; i < Math.min(height, (block + 1) * tileRows); i++) {
+              int[] row = rows[i % ringRows];
+              result.setRow(i, row, row, row);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads a block of rows of an image into the ring of rows being dithered and makes it grey.
+   *
+   * @param source   the image
+   * @param toGrey   the operation making the rows grey, or null if the image is already grey
+   * @param block    the block of rows
+   * @param tileRows number of rows of a block
+   * @param rows     the ring of rows
+   * @param max      the max value of the image
+   */
+  private static void readBlock(Image source, PointOperation toGrey, int block, int tileRows,
+                                int[][] rows, int max) {
+    int width = source.getWidth();
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int end = Math.min(source.getHeight(), (block + 1) * tileRows);
+    for (int i = block * tileRows; i < end; i++) {
+      readGrey(source, toGrey, i, rows[i % rows.length], green, blue, max);
+    }
+  }
+
+  /**
+   * Reads a row of an image and makes it grey, leaving the clamped grey values in the buffer of
+   * the red channel.
+   *
+   * @param source the image
+   * @param toGrey the operation making the row grey, or null if the image is already grey
+   * @param x      the row
+   * @param grey   buffer receiving the grey values
+   * @param green  buffer for the green values of the row
+   * @param blue   buffer for the blue values of the row
+   * @param max    the max value of the image
+   */
+  private static void readGrey(Image source, PointOperation toGrey, int x, int[] grey,
+                               int[] green, int[] blue, int max) {
+    source.getRow(x, grey, green, blue);
+    if (toGrey != null) {
+      toGrey.apply(grey, green, blue, grey.length, max);
+      for (int y = 0; y < grey.length; y++) {
+        grey[y] = Math.max(0, Math.min(grey[y], max));
+      }
+    }
+  }
+}
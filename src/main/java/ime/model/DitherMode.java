@@ -0,0 +1,62 @@
+package ime.model;
+
+import java.util.Locale;
+
+/**
+ * Represents the way an image is dithered to black and white.
+ */
+public enum DitherMode {
+  /**
+   * Floyd-Steinberg error diffusion, each pixel spreads its error onto the pixels yet to be
+   * dithered. Large images are dithered as a wavefront of tiles run in parallel.
+   */
+  FLOYD_STEINBERG {
+    @Override
+    Filter filter(Filter greyscale) {
+      return new DitherFilter(greyscale);
+    }
+  },
+
+  /**
+   * Ordered dithering with an 8x8 Bayer matrix, every pixel is dithered on its own.
+   */
+  BAYER {
+    @Override
+    Filter filter(Filter greyscale) {
+      return OrderedDitherFilter.bayer(greyscale, 8);
+    }
+  },
+
+  /**
+   * Ordered dithering with a 64x64 blue noise map, every pixel is dithered on its own.
+   */
+  BLUE_NOISE {
+    @Override
+    Filter filter(Filter greyscale) {
+      return OrderedDitherFilter.blueNoise(greyscale);
+    }
+  };
+
+  /**
+   * Gets the filter dithering images in this mode.
+   *
+   * @param greyscale the filter that makes the image grey before it is dithered
+   * @return the dither filter
+   */
+  abstract Filter filter(Filter greyscale);
+
+  /**
+   * Gets the dither mode of the given name.
+   *
+   * @param name the name of the mode, one of floyd-steinberg, bayer and blue-noise
+   * @return the dither mode
+   * @throws IllegalArgumentException if the name is not of a dither mode
+   */
+  public static DitherMode fromName(String name) {
+    try {
+      return DitherMode.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown dither mode " + name);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package ime.model;
+
+import java.util.Locale;
+
+/**
+ * Represents how a filter reading the neighbourhood of the pixels treats the pixels beyond the
+ * edges of the image. A filter loads the rows under its kernel with the pixels beyond the edges
+ * already filled in, so the sums over the interior and over the borders are the same code.
+ */
+public enum EdgeMode {
+  /**
+   * Pixels beyond the edges are 0, they add nothing to the sums.
+   */
+  ZERO {
+    @Override
+    int map(int index, int length) {
+      return index >= 0 && index < length ? index : -1;
+    }
+  },
+
+  /**
+   * Pixels beyond the edges repeat the pixel on the edge.
+   */
+  CLAMP {
+    @Override
+    int map(int index, int length) {
+      return Math.max(0, Math.min(index, length - 1));
+    }
+  },
+
+  /**
+   * Pixels beyond the edges mirror the pixels inside, the pixel on the edge is not repeated.
+   */
+  MIRROR {
+    @Override
+    int map(int index, int length) {
+      if (length == 1) {
+        return 0;
+      }
+      int period = 2 * (length - 1);
+      int position = Math.floorMod(index, period);
+      return position < length ? position : period - position;
+    }
+  },
+
+  /**
+   * Pixels beyond an edge are the pixels from the opposite edge, as if the image were tiled.
+   */
+  WRAP {
+    @Override
+    int map(int index, int length) {
+      return Math.floorMod(index, length);
+    }
+  };
+
+  /**
+   * Gets the pixel inside of a row or column whose value a pixel at the given index takes.
+   *
+   * @param index  index of the pixel, may be beyond the edges
+   * @param length number of pixels of the row or column
+   * @return the index of a pixel inside, or -1 if the pixel is 0
+   */
+  abstract int map(int index, int length);
+
+  /**
+   * Gets the edge mode of the given name.
+   *
+   * @param name the name of the mode, one of zero, clamp, mirror and wrap
+   * @return the edge mode
+   * @throws IllegalArgumentException if the name is not of an edge mode
+   */
+  public static EdgeMode fromName(String name) {
+    try {
+      return EdgeMode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown edge mode " + name);
+    }
+  }
+}
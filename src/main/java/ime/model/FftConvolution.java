@@ -0,0 +1,315 @@
+package ime.model;
+
+import java.util.Arrays;
+
+/**
+ * Applies a large kernel to an image through the fast Fourier transform, whose cost per pixel
+ * grows with the logarithm of the size of the kernel instead of its square. The image is cut
+ * into square tiles that are transformed one at a time, overlap-save: the block under a tile
+ * holds the tile and half the kernel around it, its product with the transformed kernel gives
+ * the tile exactly, and the circular sums wrapping around the block only land outside the tile.
+ * Each tile of the result is written by exactly one block, so bands of tiles run in parallel.
+ * A band holds the rows under a strip of tiles across the whole width of the image, so the
+ * strips are spread over no more bands than fit in WORKING_BYTES at once.
+ * Two real blocks are transformed together as the real and imaginary parts of one complex
+ * block, the kernel being real their results come back in the same parts: the red and green
+ * channels of a tile share a block, and so do the blue channels of two neighbouring tiles.
+ * The sums are those of the direct products up to the rounding of the transforms, so a pixel
+ * may only differ by one from the direct sums when they are within a rounding error of a half.
+ */
+final class FftConvolution {
+  /**
+   * Bytes of the buffers of the bands transformed at once, an eighth of the heap.
+   */
+  static final long WORKING_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+  private final int size;
+  private final EdgeMode edges;
+  // Side of the transformed blocks, a power of two, and of the tiles of the result
+  private final int blockSize;
+  private final int tileSize;
+  private final Transform transform;
+  // Transform of the kernel, flipped so that the product sums like the direct filter
+  private final double[] kernelRe;
+  private final double[] kernelIm;
+
+  /**
+   * Prepares the transform of a kernel.
+   *
+   * @param kernel the square kernel of odd size
+   * @param edges  the values of the pixels under the kernel beyond the edges of the image
+   */
+  FftConvolution(double[][] kernel, EdgeMode edges) {
+    this.size = kernel.length;
+    this.edges = edges;
+    // Blocks of four kernels or more, so that most of a block is the tile
+    this.blockSize = Integer.highestOneBit(4 * size - 1) << 1;
+    this.tileSize = blockSize - size + 1;
+    this.transform = new Transform(blockSize);
+    this.kernelRe = new double[blockSize * blockSize];
+    this.kernelIm = new double[blockSize * blockSize];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        kernelRe[(size - 1 - i) * blockSize + (size - 1 - j)] = kernel[i][j];
+      }
+    }
+    transform.apply2d(kernelRe, kernelIm, false);
+  }
+
+  /**
+   * Applies the kernel to an image.
+   *
+   * @param inputImage the image on which the filter has to be applied
+   * @param newImage   the image receiving the filtered rows
+   */
+  void apply(Image inputImage, Image newImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int strips = (height + tileSize - 1) / tileSize;
+    int bands = bands(height, width, WORKING_BYTES);
+    // A band of the executor is a run of strips done one after the other with one set of buffers
+    long bandPixels = (long) (strips + bands - 1) / bands * tileSize * width;
+    RowBands.shared().forEach(bands, bandPixels, (from, to) -> applyStrips(inputImage, newImage,
+            (int) ((long) from * strips / bands), (int) ((long) to * strips / bands)));
+  }
+
+  /**
+   * Gets the number of bands the strips of an image are spread over, one strip per band unless
+   * the buffers of that many bands exceed the given bytes.
+   *
+   * @param height       height of the image
+   * @param width        width of the image
+   * @param workingBytes bytes of the buffers of the bands transformed at once
+   * @return the number of bands, at least one
+   */
+  int bands(int height, int width, long workingBytes) {
+    int strips = (height + tileSize - 1) / tileSize;
+    int tiles = (width + tileSize - 1) / tileSize;
+    long paddedWidth = (long) (tiles - 1) * tileSize + blockSize;
+    // The rows read, the rows under the strip and the rows of the result as ints, and the
+    // complex block as doubles
+    long bandBytes = 4 * (3L * width + 3L * blockSize * paddedWidth + 3L * tileSize * width)
+            + 16L * blockSize * blockSize;
+    return (int) Math.max(1, Math.min(strips, workingBytes / bandBytes));
+  }
+
+  /**
+   * Applies the kernel to a band of strips of tiles, a strip being a row of tiles.
+   *
+   * @param inputImage the image on which the filter has to be applied
+   * @param newImage   the image receiving the filtered rows
+   * @param from       first strip of the band
+   * @param to         strip after the last one of the band
+   */
+  private void applyStrips(Image inputImage, Image newImage, int from, int to) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int half = size / 2;
+    int tiles = (width + tileSize - 1) / tileSize;
+    // Rows under a strip, with the columns under every block of the strip
+    int paddedWidth = (tiles - 1) * tileSize + blockSize;
+
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int[][] underR = new int[blockSize][paddedWidth];
+    int[][] underG = new int[blockSize][paddedWidth];
+    int[][] underB = new int[blockSize][paddedWidth];
+    int[][] outR = new int[tileSize][width];
+    int[][] outG = new int[tileSize][width];
+    int[][] outB = new int[tileSize][width];
+    double[] re = new double[blockSize * blockSize];
+    double[] im = new double[blockSize * blockSize];
+
+    for (int strip = from; strip < to; strip++) {
+      int top = strip * tileSize;
+      // The pixels beyond the edges are given by the edge mode, those far beyond only reach
+      // sums outside of the tiles
+      for (int i = 0; i < blockSize; i++) {
+        int mapped = edges.map(top - half + i, height);
+        if (mapped < 0) {
+          Arrays.fill(underR[i], 0);
+          Arrays.fill(underG[i], 0);
+          Arrays.fill(underB[i], 0);
+          continue;
+        }
+        inputImage.getRow(mapped, red, green, blue);
+        for (int k = 0; k < paddedWidth; k++) {
+          int column = edges.map(k - half, width);
+          underR[i][k] = column < 0 ? 0 : red[column];
+          underG[i][k] = column < 0 ? 0 : green[column];
+          underB[i][k] = column < 0 ? 0 : blue[column];
+        }
+      }
+
+      for (int tile = 0; tile < tiles; tile++) {
+        int left = tile * tileSize;
+        convolveBlock(underR, left, underG, left, re, im);
+        store(re, outR, left, width);
+        store(im, outG, left, width);
+        // The blue channels of two tiles share a block
+        if (tile % 2 == 1) {
+          convolveBlock(underB, left - tileSize, underB, left, re, im);
+          store(re, outB, left - tileSize, width);
+          store(im, outB, left, width);
+        } else if (tile == tiles - 1) {
+          convolveBlock(underB, left, null, 0, re, im);
+          store(re, outB, left, width);
+        }
+      }
+      for (int i = 0; i < tileSize && top + i < height; i++) {
+        newImage.setRow(top + i, outR[i], outG[i], outB[i]);
+      }
+    }
+  }
+
+  /**
+   * Convolves two real blocks with the kernel at once, as the real and imaginary parts of one
+   * complex block. The block is transformed, multiplied by the transform of the kernel and
+   * transformed back.
+   *
+   * @param real          rows of the channel going in the real part
+   * @param realLeft      first column of the block in these rows
+   * @param imaginary     rows of the channel going in the imaginary part, or null for none
+   * @param imaginaryLeft first column of the block in these rows
+   * @param re            buffer of the real part, receiving the result of the first block
+   * @param im            buffer of the imaginary part, receiving the result of the second block
+   */
+  private void convolveBlock(int[][] real, int realLeft, int[][] imaginary, int imaginaryLeft,
+                             double[] re, double[] im) {
+    for (int i = 0; i < blockSize; i++) {
+      int[] realRow = real[i];
+      int[] imaginaryRow = imaginary == null ? null : imaginary[i];
+      for (int j = 0; j < blockSize; j++) {
+        re[i * blockSize + j] = realRow[realLeft + j];
+        im[i * blockSize + j] = imaginaryRow == null ? 0 : imaginaryRow[imaginaryLeft + j];
+      }
+    }
+    transform.apply2d(re, im, false);
+    for (int k = 0; k < re.length; k++) {
+      double a = re[k];
+      double b = im[k];
+      re[k] = a * kernelRe[k] - b * kernelIm[k];
+      im[k] = a * kernelIm[k] + b * kernelRe[k];
+    }
+    transform.apply2d(re, im, true);
+  }
+
+  /**
+   * Rounds the tile of a convolved block into the rows of the result. The pixel at the top left
+   * of the tile is where the kernel lies entirely in the block.
+   *
+   * @param block the convolved block
+   * @param out   rows of the strip of the result
+   * @param left  first column of the tile
+   * @param width the width of the image
+   */
+  private void store(double[] block, int[][] out, int left, int width) {
+    int columns = Math.min(tileSize, width - left);
+    for (int i = 0; i < tileSize; i++) {
+      int offset = (i + size - 1) * blockSize + size - 1;
+      int[] row = out[i];
+      for (int j = 0; j < columns; j++) {
+        row[left + j] = (int) Math.round(block[offset + j]);
+      }
+    }
+  }
+
+  /**
+   * Radix-2 fast Fourier transform of square blocks whose side is a power of two, the rows are
+   * transformed then the columns.
+   */
+  private static final class Transform {
+    private final int length;
+    private final int[] reversed;
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Prepares the bit reversal and the twiddle factors of a length.
+     *
+     * @param length the side of the blocks, a power of two
+     */
+    private Transform(int length) {
+      this.length = length;
+      this.reversed = new int[length];
+      int bits = Integer.numberOfTrailingZeros(length);
+      for (int k = 0; k < length; k++) {
+        reversed[k] = Integer.reverse(k) >>> (Integer.SIZE - bits);
+      }
+      this.cos = new double[length / 2];
+      this.sin = new double[length / 2];
+      for (int k = 0; k < length / 2; k++) {
+        cos[k] = Math.cos(2 * Math.PI * k / length);
+        sin[k] = Math.sin(2 * Math.PI * k / length);
+      }
+    }
+
+    /**
+     * Transforms a square block in place, the inverse transform is divided by the number of
+     * values so that it undoes the forward one.
+     *
+     * @param re      the real parts, row by row
+     * @param im      the imaginary parts, row by row
+     * @param inverse true for the inverse transform
+     */
+    private void apply2d(double[] re, double[] im, boolean inverse) {
+      for (int i = 0; i < length; i++) {
+        apply(re, im, i * length, 1, inverse);
+      }
+      for (int j = 0; j < length; j++) {
+        apply(re, im, j, length, inverse);
+      }
+      if (inverse) {
+        double scale = 1.0 / ((double) length * length);
+        for (int k = 0; k < re.length; k++) {
+          re[k] *= scale;
+          im[k] *= scale;
+        }
+      }
+    }
+
+    /**
+     * Transforms a row or a column of a block in place.
+     *
+     * @param re      the real parts of the block
+     * @param im      the imaginary parts of the block
+     * @param start   index of the first value
+     * @param stride  distance between consecutive values, 1 for a row and the side for a column
+     * @param inverse true for the inverse transform, without its division
+     */
+    private void apply(double[] re, double[] im, int start, int stride, boolean inverse) {
+      for (int k = 0; k < length; k++) {
+        int r = reversed[k];
+        if (r > k) {
+          int a = start + k * stride;
+          int b = start + r * stride;
+          double t = re[a];
+          re[a] = re[b];
+          re[b] = t;
+          t = im[a];
+          im[a] = im[b];
+          im[b] = t;
+        }
+      }
+      double sign = inverse ? 1 : -1;
+      for (int span = 1; span < length; span *= 2) {
+        int step = length / (2 * span);
+        for (int group = 0; group < length; group += 2 * span) {
+          for (int k = 0; k < span; k++) {
+            double wr = cos[k * step];
+            double wi = sign * sin[k * step];
+            int a = start + (group + k) * stride;
+            int b = a + span * stride;
+            double tr = re[b] * wr - im[b] * wi;
+            double ti = re[b] * wi + im[b] * wr;
+            re[b] = re[a] - tr;
+            im[b] = im[a] - ti;
+            re[a] += tr;
+            im[a] += ti;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package ime.model;
+
+import java.util.Locale;
+
+/**
+ * The arithmetic of the matrix and color filters on rows of planar channel data. The filters
+ * hand whole rows to the backend, which may process many pixels per instruction or use integer
+ * arithmetic. The scalar and vector backends sum the products of a pixel in the same order, so
+ * they give the same results; the fixed point backend rounds the weights and is within 1 of them
+ * on 8 bit images.
+ * The filters build the weights of their kernels and matrices once and hand them to the backend
+ * on every row, so a backend that computes with another form of the weights converts them once.
+ * The filters use the shared backend, which the application configures once at startup.
+ *
+ * @param <R> the type of a row filtered horizontally by a separable kernel, double[] for the
+ *            backends computing with doubles and long[] for the fixed point backend
+ */
+public abstract class FilterBackend<R> {
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+  private static volatile FilterBackend<?> shared = fromName("vector");
+
+  /**
+   * The weights of a kernel, of a factor of a separable kernel or of a color matrix, built once
+   * by a filter and handed to the backend on every row. The backends computing with doubles read
+   * the weights as they are, the fixed point backend scales them on first use and keeps them.
+   */
+  static final class Weights {
+    private final double[][] values;
+    private volatile long[][] fixedPoint;
+
+    /**
+     * Constructs the weights of a kernel or of a matrix.
+     *
+     * @param values the rows of the weights
+     */
+    Weights(double[][] values) {
+      this.values = values;
+    }
+
+    /**
+     * Constructs the weights of a factor of a separable kernel.
+     *
+     * @param values the weights
+     */
+    Weights(double[] values) {
+      this(new double[][]{values});
+    }
+
+    /**
+     * Gets the rows of the weights.
+     *
+     * @return the rows of the weights
+     */
+    double[][] values() {
+      return values;
+    }
+
+    /**
+     * Gets the weights as fixed point numbers of the fixed point backend, scaled and rounded on
+     * first use only. Threads racing on the first use scale the same numbers.
+     *
+     * @return the rows of the scaled weights
+     */
+    long[][] fixedPoint() {
+      long[][] scaled = fixedPoint;
+      if (scaled == null) {
+        scaled = new long[values.length][];
+        for (int i = 0; i < values.length; i++) {
+          scaled[i] = FixedPointBackend.scale(values[i]);
+        }
+        fixedPoint = scaled;
+      }
+      return scaled;
+    }
+  }
+
+  /**
+   * Gets the backend of the given name: "scalar" for plain Java loops, "fixed" for 16.16 fixed
+   * point integer arithmetic, or "vector" for the Vector API, which falls back to the scalar
+   * backend when the jdk.incubator.vector module is not enabled.
+   *
+   * @param name the name of the backend
+   * @return the backend
+   * @throws IllegalArgumentException if the name is not of a backend
+   */
+  public static FilterBackend<?> fromName(String name) {
+    switch (name.toLowerCase(Locale.ROOT)) {
+      case "scalar":
+        return new ScalarBackend();
+      case "fixed":
+        return new FixedPointBackend();
+      case "vector":
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+          return new ScalarBackend();
+        }
+        // Loaded by name so that the vector classes are only linked when the module is present
+        try {
+          return (FilterBackend<?>) Class.forName("ime.model.VectorBackend")
+                  .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+          return new ScalarBackend();
+        }
+      default:
+        throw new IllegalArgumentException("Unknown filter backend: " + name);
+    }
+  }
+
+  /**
+   * Gets the backend used by the filters.
+   *
+   * @return the shared backend
+   */
+  public static FilterBackend<?> shared() {
+    return shared;
+  }
+
+  /**
+   * Sets the backend used by the filters.
+   *
+   * @param backend the shared backend
+   */
+  public static void setShared(FilterBackend<?> backend) {
+    shared = backend;
+  }
+
+  /**
+   * Gets the name of the backend.
+   *
+   * @return "scalar", "fixed" or "vector"
+   */
+  public abstract String getName();
+
+  /**
+   * Allocates rows filtered horizontally by a separable kernel.
+   *
+   * @param count  number of rows
+   * @param length number of values of a row, 0 for an array whose rows are set later
+   * @return the rows
+   */
+  abstract R[] newRows(int count, int length);
+
+  /**
+   * Convolves rows of a channel with a kernel and rounds the sums. The pixel y of the result is
+   * the sum of kernel[i][j] * rows[i][offsets[i] + y + j]. The rows hold the pixels beyond the
+   * edges of the image as given by the edge mode of the filter, so the pixels under the kernel
+   * are always in the rows and the sums need no bounds checks.
+   *
+   * @param kernel  the weights of the square kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param width   number of pixels of the result
+   * @param out     buffer that receives the result
+   */
+  abstract void convolve(Weights kernel, int[][] rows, int[] offsets, int width, int[] out);
+
+  /**
+   * Filters a row of a channel with the row of a separable kernel. The pixel y of the result is
+   * the sum of row[j] * channel[offset + y + j].
+   *
+   * @param row            the weights of the row of the kernel
+   * @param channel        the values of the channel, including the pixels on either side
+   * @param offset         index of the pixel under the start of the kernel for the first pixel
+   * @param width          number of pixels of the result
+   * @param filtered       buffer that receives the filtered values
+   * @param filteredOffset index of the first pixel of the result in the buffer
+   */
+  abstract void filterRow(Weights row, int[] channel, int offset, int width, R filtered,
+                          int filteredOffset);
+
+  /**
+   * Sums horizontally filtered rows with the column of a separable kernel and rounds the sums.
+   * The pixel y of the result is the sum of column[i] * rows[i][offsets[i] + y].
+   *
+   * @param column  the weights of the column of the kernel
+   * @param rows    the filtered rows under each entry of the column
+   * @param offsets index of the first pixel in each row
+   * @param width   number of pixels of the result
+   * @param out     buffer that receives the result
+   */
+  abstract void combine(Weights column, R[] rows, int[] offsets, int width, int[] out);
+
+  /**
+   * Multiplies the channels of every pixel of a row by a 3x3 matrix and rounds the results, the
+   * row is transformed in place.
+   *
+   * @param matrix the weights of the rows of the matrix giving the red, green and blue results
+   * @param red    the red values of the row
+   * @param green  the green values of the row
+   * @param blue   the blue values of the row
+   * @param width  number of pixels in the row
+   */
+  abstract void transform(Weights matrix, int[] red, int[] green, int[] blue, int width);
+}
@@ -0,0 +1,217 @@
+package ime.model;
+
+/**
+ * Filter backend computing with integers instead of doubles. The weights of the kernels and
+ * matrices are scaled to 16.16 fixed point numbers once per filter, the products of the weights
+ * and of the pixels are added in a long and the sums are rounded with a shift. Rounding the
+ * weights moves a sum by at most size * size * max / 2^17, so 8 bit images are within 1 of the
+ * double arithmetic.
+ * The separable passes keep the horizontal sums in 16.16 in rows of longs, so the vertical pass
+ * sums them without converting them back from doubles.
+ */
+class FixedPointBackend extends FilterBackend<long[]> {
+  private static final int FRACTION_BITS = 16;
+  private static final long ONE = 1L << FRACTION_BITS;
+
+  @Override
+  public String getName() {
+    return "fixed";
+  }
+
+  @Override
+  long[][] newRows(int count, int length) {
+    return new long[count][length];
+  }
+
+  /**
+   * Scales weights to fixed point numbers.
+   *
+   * @param weights the weights
+   * @return the weights times 2^16, rounded
+   */
+  static long[] scale(double[] weights) {
+    long[] scaled = new long[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      scaled[i] = Math.round(weights[i] * ONE);
+    }
+    return scaled;
+  }
+
+  /**
+   * Rounds a fixed point sum to the nearest integer, halves rounding up like Math.round.
+   *
+   * @param sum  the sum
+   * @param bits number of bits of the fraction of the sum
+   * @return the rounded sum
+   */
+  private static int round(long sum, int bits) {
+    return (int) ((sum + (1L << (bits - 1))) >> bits);
+  }
+
+  @Override
+  void convolve(Weights kernel, int[][] rows, int[] offsets, int width, int[] out) {
+    long[][] weights = kernel.fixedPoint();
+    int size = weights.length;
+    if (size == 3) {
+      convolve3(weights, rows, offsets, width, out);
+      return;
+    } else if (size == 5) {
+      convolve5(weights, rows, offsets, width, out);
+      return;
+    }
+    for (int y = 0; y < width; y++) {
+      long sum = 0;
+      for (int i = 0; i < size; i++) {
+        sum += dot(weights[i], rows[i], offsets[i] + y);
+      }
+      out[y] = round(sum, FRACTION_BITS);
+    }
+  }
+
+  /**
+   * Convolves rows of a channel with a 5x5 kernel, row of the kernel by row of the kernel into
+   * sums kept for the whole row, with the five weights of a row held in locals.
+   *
+   * @param weights the fixed point weights of the kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param width   number of pixels of the result
+   * @param out     buffer that receives the result
+   */
+  private static void convolve5(long[][] weights, int[][] rows, int[] offsets, int width,
+                                int[] out) {
+    long[] sums = new long[width];
+    for (int i = 0; i < 5; i++) {
+      long k0 = weights[i][0];
+      long k1 = weights[i][1];
+      long k2 = weights[i][2];
+      long k3 = weights[i][3];
+      long k4 = weights[i][4];
+      int[] row = rows[i];
+      int offset = offsets[i];
+      for (int y = 0; y < width; y++) {
+        int o = offset + y;
+        sums[y] += k0 * row[o] + k1 * row[o + 1] + k2 * row[o + 2] + k3 * row[o + 3]
+                + k4 * row[o + 4];
+      }
+    }
+    for (int y = 0; y < width; y++) {
+      out[y] = round(sums[y], FRACTION_BITS);
+    }
+  }
+
+  /**
+   * Convolves rows of a channel with a 3x3 kernel, unrolled with the weights held in locals.
+   *
+   * @param weights the fixed point weights of the kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param width   number of pixels of the result
+   * @param out     buffer that receives the result
+   */
+  private static void convolve3(long[][] weights, int[][] rows, int[] offsets, int width,
+                                int[] out) {
+    long k00 = weights[0][0];
+    long k01 = weights[0][1];
+    long k02 = weights[0][2];
+    long k10 = weights[1][0];
+    long k11 = weights[1][1];
+    long k12 = weights[1][2];
+    long k20 = weights[2][0];
+    long k21 = weights[2][1];
+    long k22 = weights[2][2];
+    int[] top = rows[0];
+    int[] middle = rows[1];
+    int[] bottom = rows[2];
+    int topOffset = offsets[0];
+    int middleOffset = offsets[1];
+    int bottomOffset = offsets[2];
+    for (int y = 0; y < width; y++) {
+      int t = topOffset + y;
+      int m = middleOffset + y;
+      int b = bottomOffset + y;
+      long sum = k00 * top[t] + k01 * top[t + 1] + k02 * top[t + 2]
+              + k10 * middle[m] + k11 * middle[m + 1] + k12 * middle[m + 2]
+              + k20 * bottom[b] + k21 * bottom[b + 1] + k22 * bottom[b + 2];
+      out[y] = round(sum, FRACTION_BITS);
+    }
+  }
+
+  /**
+   * Sums the products of weights and of consecutive values of a row. Integer sums do not depend
+   * on the order of the products, so the common sizes are unrolled.
+   *
+   * @param weights the fixed point weights
+   * @param row     the values of the row
+   * @param offset  index of the value under the first weight
+   * @return the sum of the products
+   */
+  private static long dot(long[] weights, int[] row, int offset) {
+    switch (weights.length) {
+      case 3:
+        return weights[0] * row[offset] + weights[1] * row[offset + 1]
+                + weights[2] * row[offset + 2];
+      case 5:
+        return weights[0] * row[offset] + weights[1] * row[offset + 1]
+                + weights[2] * row[offset + 2] + weights[3] * row[offset + 3]
+                + weights[4] * row[offset + 4];
+      default:
+        long sum = 0;
+        for (int j = 0; j < weights.length; j++) {
+          sum += weights[j] * row[offset + j];
+        }
+        return sum;
+    }
+  }
+
+  @Override
+  void filterRow(Weights row, int[] channel, int offset, int width, long[] filtered,
+                 int filteredOffset) {
+    long[] weights = row.fixedPoint()[0];
+    for (int y = 0; y < width; y++) {
+      filtered[filteredOffset + y] = dot(weights, channel, offset + y);
+    }
+  }
+
+  @Override
+  void combine(Weights column, long[][] rows, int[] offsets, int width, int[] out) {
+    long[] weights = column.fixedPoint()[0];
+    // Row by row into sums kept for the whole row, so that each pass reads one row in order
+    long[] sums = new long[width];
+    for (int i = 0; i < weights.length; i++) {
+      long weight = weights[i];
+      long[] row = rows[i];
+      int offset = offsets[i];
+      for (int y = 0; y < width; y++) {
+        sums[y] += weight * row[offset + y];
+      }
+    }
+    for (int y = 0; y < width; y++) {
+      // The filtered rows are in 16.16, their weighted sum has 32 bits of fraction
+      out[y] = round(sums[y], 2 * FRACTION_BITS);
+    }
+  }
+
+  @Override
+  void transform(Weights matrix, int[] red, int[] green, int[] blue, int width) {
+    long[][] weights = matrix.fixedPoint();
+    long rr = weights[0][0];
+    long rg = weights[0][1];
+    long rb = weights[0][2];
+    long gr = weights[1][0];
+    long gg = weights[1][1];
+    long gb = weights[1][2];
+    long br = weights[2][0];
+    long bg = weights[2][1];
+    long bb = weights[2][2];
+    for (int j = 0; j < width; j++) {
+      long r = red[j];
+      long g = green[j];
+      long b = blue[j];
+
+      red[j] = round(rr * r + rg * g + rb * b, FRACTION_BITS);
+      green[j] = round(gr * r + gg * g + gb * b, FRACTION_BITS);
+      blue[j] = round(br * r + bg * g + bb * b, FRACTION_BITS);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package ime.model;
+
+/**
+ * A view of an image flipped vertically or horizontally, pixels are read from the mirrored
+ * position in the source.
+ */
+class FlipView extends ImageView {
+  private final boolean vertical;
+
+  /**
+   * Constructs a flipped view of an image.
+   *
+   * @param source   the image to be flipped
+   * @param vertical true to flip the rows, false to flip the columns
+   */
+  public FlipView(Image source, boolean vertical) {
+    super(source, source.getHeight(), source.getWidth());
+    this.vertical = vertical;
+  }
+
+  /**
+   * Gets the row of the source that is shown in a row of the view.
+   *
+   * @param x the row of the view
+   * @return the row of the source
+   */
+  private int sourceRow(int x) {
+    return vertical ? height - 1 - x : x;
+  }
+
+  /**
+   * Gets the column of the source that is shown in a column of the view.
+   *
+   * @param y the column of the view
+   * @return the column of the source
+   */
+  private int sourceColumn(int y) {
+    return vertical ? y : width - 1 - y;
+  }
+
+  @Override
+  protected int viewRed(int x, int y) {
+    return source.getRed(sourceRow(x), sourceColumn(y));
+  }
+
+  @Override
+  protected int viewGreen(int x, int y) {
+    return source.getGreen(sourceRow(x), sourceColumn(y));
+  }
+
+  @Override
+  protected int viewBlue(int x, int y) {
+    return source.getBlue(sourceRow(x), sourceColumn(y));
+  }
+
+  @Override
+  protected void viewRow(int x, int[] red, int[] green, int[] blue) {
+    source.getRow(sourceRow(x), red, green, blue);
+    if (!vertical) {
+      for (int left = 0, right = width - 1; left < right; left++, right--) {
+        swap(red, left, right);
+        swap(green, left, right);
+        swap(blue, left, right);
+      }
+    }
+  }
+
+  /**
+   * Swaps two values of a row buffer.
+   *
+   * @param values the row buffer
+   * @param i      index of the first value
+   * @param j      index of the second value
+   */
+  private static void swap(int[] values, int i, int j) {
+    int value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+}
@@ -0,0 +1,149 @@
+package ime.model;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Implementation of Image for greyscale images, whose three channels hold the same value.
+ * The pixels are stored as a single plane laid out row after row, of bytes when the max value
+ * fits in 8 bits, of shorts when it fits in 16 bits and of ints otherwise, so an image costs a
+ * third of an image of three planes. Writing a pixel whose channels differ is an error.
+ */
+class GreyPlaneImage extends AbstractImage {
+  private final byte[] bytes;
+  private final short[] shorts;
+  private final int[] ints;
+
+  /**
+   * Constructor to create a greyscale image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   */
+  public GreyPlaneImage(int height, int width, int max) {
+    super(height, width, max);
+    this.bytes = max <= 0xFF ? new byte[height * width] : null;
+    this.shorts = max > 0xFF && max <= 0xFFFF ? new short[height * width] : null;
+    this.ints = max > 0xFFFF ? new int[height * width] : null;
+  }
+
+  /**
+   * Gets the index of a pixel in the plane.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the index in the plane
+   */
+  private int index(int x, int y) {
+    checkBounds(x, y);
+    return x * width + y;
+  }
+
+  /**
+   * Gets the grey value at an index of the plane.
+   *
+   * @param index the index in the plane
+   * @return the grey value
+   */
+  private int get(int index) {
+    if (bytes != null) {
+      return bytes[index] & 0xFF;
+    } else if (shorts != null) {
+      return shorts[index] & 0xFFFF;
+    }
+    return ints[index];
+  }
+
+  /**
+   * Sets the grey value at an index of the plane.
+   *
+   * @param index the index in the plane
+   * @param value the grey value, clamped to the max of the image
+   */
+  private void set(int index, int value) {
+    if (bytes != null) {
+      bytes[index] = (byte) clamp(value);
+    } else if (shorts != null) {
+      shorts[index] = (short) clamp(value);
+    } else {
+      ints[index] = clamp(value);
+    }
+  }
+
+  @Override
+  int planes() {
+    return 1;
+  }
+
+  @Override
+  MemorySegment plane(Channel channel) {
+    // The one plane holds every channel
+    if (bytes != null) {
+      return MemorySegment.ofArray(bytes);
+    } else if (shorts != null) {
+      return MemorySegment.ofArray(shorts);
+    }
+    return MemorySegment.ofArray(ints);
+  }
+
+  @Override
+  boolean copyPlane(Channel channel, Image source, int from, int to) {
+    // A single channel cannot be written without the others
+    return false;
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return ImageStorage.HEAP;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return get(index(x, y));
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return get(index(x, y));
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return get(index(x, y));
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    checkGrey(red, green, blue);
+    modified();
+    set(index(x, y), red);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      int value = get(offset + y);
+      red[y] = value;
+      green[y] = value;
+      blue[y] = value;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    // A grey row is usually written from one buffer passed for every channel
+    if (red != green || green != blue) {
+      for (int y = 0; y < width; y++) {
+        checkGrey(red[y], green[y], blue[y]);
+      }
+    }
+    modified();
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      set(offset + y, red[y]);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package ime.model;
+
+/**
+ * A point operation that sets the three channels of a pixel to one grey value computed from
+ * them, either a weighted sum of the channels such as the luma or the intensity, their average.
+ * For images whose max value is small enough the products of the weights and of every channel
+ * value are computed once into a table per channel, so a pixel costs three loads and two
+ * additions. The products are the same as those computed per pixel, so are the grey values.
+ */
+class GreyscaleOperation implements PointOperation {
+  // Tables for larger max values would cost more than computing the grey values
+  private static final int MAX_TABLE_SIZE = 0xFFFF + 1;
+
+  // Weights of the red, green and blue channels, null for the intensity
+  private final double[] weights;
+
+  /**
+   * Constructs a greyscale operation given the weights of its channels.
+   *
+   * @param weights the weights of the red, green and blue channels, or null for the intensity
+   */
+  private GreyscaleOperation(double[] weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * Gets the operation whose grey value is the rounded weighted sum of the channels.
+   *
+   * @param red   weight of the red channel
+   * @param green weight of the green channel
+   * @param blue  weight of the blue channel
+   * @return the weighted greyscale
+   */
+  static GreyscaleOperation weighted(double red, double green, double blue) {
+    return new GreyscaleOperation(new double[]{red, green, blue});
+  }
+
+  /**
+   * Gets the operation whose grey value is the luma, 0.2126 * r + 0.7152 * g + 0.0722 * b.
+   *
+   * @return the luma greyscale
+   */
+  static GreyscaleOperation luma() {
+    return weighted(0.2126, 0.7152, 0.0722);
+  }
+
+  /**
+   * Gets the operation whose grey value is the intensity, the average of the channels rounded
+   * down.
+   *
+   * @return the intensity greyscale
+   */
+  static GreyscaleOperation intensity() {
+    return new GreyscaleOperation(null);
+  }
+
+  @Override
+  public void apply(int[] red, int[] green, int[] blue, int width, int max) {
+    for (int j = 0; j < width; j++) {
+      int grey = weights == null ? (red[j] + green[j] + blue[j]) / 3
+              : (int) Math.round(weights[0] * red[j] + weights[1] * green[j]
+              + weights[2] * blue[j]);
+      red[j] = grey;
+      green[j] = grey;
+      blue[j] = grey;
+    }
+  }
+
+  @Override
+  public PointOperation withTable(int max) {
+    if (max >= MAX_TABLE_SIZE) {
+      return this;
+    }
+    if (weights == null) {
+      // The intensity of every sum of the channels
+      int[] thirds = new int[3 * max + 1];
+      for (int sum = 0; sum < thirds.length; sum++) {
+        thirds[sum] = sum / 3;
+      }
+      return (red, green, blue, width, imageMax) -> {
+        for (int j = 0; j < width; j++) {
+          int grey = thirds[red[j] + green[j] + blue[j]];
+          red[j] = grey;
+          green[j] = grey;
+          blue[j] = grey;
+        }
+      };
+    }
+    double[] redTable = new double[max + 1];
+    double[] greenTable = new double[max + 1];
+    double[] blueTable = new double[max + 1];
+    for (int value = 0; value <= max; value++) {
+      redTable[value] = weights[0] * value;
+      greenTable[value] = weights[1] * value;
+      blueTable[value] = weights[2] * value;
+    }
+    return (red, green, blue, width, imageMax) -> {
+      for (int j = 0; j < width; j++) {
+        int grey = (int) Math.round(redTable[red[j]] + greenTable[green[j]]
+                + blueTable[blue[j]]);
+        red[j] = grey;
+        green[j] = grey;
+        blue[j] = grey;
+      }
+    };
+  }
+}
@@ -3,6 +3,7 @@ package ime.model;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
 
 /**
  * This interface represents operations of Image Manipulation and Enhancement.
@@ -28,6 +29,40 @@ public interface IME {
    */
   OutputStream writeData(String imageName) throws IOException;
 
+  /**
+   * Method to remove an image from the session, the memory held by the image is released.
+   *
+   * @param imageName name in which the image has been stored.
+   */
+  void remove(String imageName);
+
+  /**
+   * Method to get the metrics of the registry that keeps the images of the session, the bytes of
+   * pixels held in memory, the budget, and the counts of hits, misses and spills.
+   *
+   * @return the metrics by name
+   */
+  Map<String, Long> getRegistryMetrics();
+
+  /**
+   * Method to get the histograms of an image, the number of pixels of every value of its red,
+   * green and blue channels and of its luma. Images whose max value is above 65535 have their
+   * values spread over 65536 bins of equal width.
+   *
+   * @param imageName name in which the image has been stored.
+   * @return the histograms by name, red, green, blue and luma
+   */
+  Map<String, long[]> getHistogram(String imageName);
+
+  /**
+   * Method to get the statistics of an image, the smallest and largest values, the mean and the
+   * standard deviation of its red, green and blue channels and of its luma.
+   *
+   * @param imageName name in which the image has been stored.
+   * @return the statistics by name, min, max, mean and stddev, of red, green, blue and luma
+   */
+  Map<String, Map<String, Double>> getStatistics(String imageName);
+
   /**
    * Method to brighten the image. To edit the brightness.
    *
@@ -4,22 +4,69 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Function;
 
 /**
  * Implementation of the IME interface that operates on PPM image and performs the operations.
  */
-public class IMEImp implements IME {
-  protected final Map<String, Image> images;
+public class IMEImp implements IME, AutoCloseable {
+  protected final ImageRegistry images;
+  protected final ImageStorage storage;
+  protected final MappedImageStore imageStore;
+  protected final ContentStore contents;
 
   /**
    * Constructs IME, creates a set of images to store the images and results in the run.
    */
   public IMEImp() {
-    this.images = new HashMap<>();
+    this(ImageStorage.HEAP);
+  }
+
+  /**
+   * Constructs IME whose loaded images are held in the given storage.
+   *
+   * @param storage the storage in which the pixels of the loaded images are held
+   */
+  public IMEImp(ImageStorage storage) {
+    this(storage, new ImageRegistry());
+  }
+
+  /**
+   * Constructs IME whose loaded images are held in the given storage and whose images are kept
+   * in the given registry.
+   *
+   * @param storage  the storage in which the pixels of the loaded images are held
+   * @param registry the registry that keeps the images of the session
+   */
+  public IMEImp(ImageStorage storage, ImageRegistry registry) {
+    this(storage, registry, null);
+  }
+
+  /**
+   * Constructs IME whose images are persisted in the given store, the images of the store are
+   * mapped back into the session.
+   *
+   * @param storage    the storage in which the pixels of derived images are held
+   * @param registry   the registry that keeps the images of the session
+   * @param imageStore the store in which the images are persisted, or null to keep them only for
+   *                   the run
+   */
+  public IMEImp(ImageStorage storage, ImageRegistry registry, MappedImageStore imageStore) {
+    this.images = registry;
+    this.storage = storage;
+    this.imageStore = imageStore;
+    this.contents = registry.contents();
+    if (imageStore != null) {
+      for (Map.Entry<String, Image> entry : imageStore.restore(storage).entrySet()) {
+        images.put(entry.getKey(), entry.getValue());
+      }
+    }
   }
 
 
@@ -34,168 +81,423 @@ public class IMEImp implements IME {
       throw new IllegalArgumentException("Please provide a valid file");
     }
 
-    Image newImage = new RGBImage(height, width, max);
+    Image newImage = imageStore != null ? imageStore.create(height, width, max, storage)
+            : storage.create(height, width, max);
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
+    try {
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          int r = sc.nextInt();
+          int g = sc.nextInt();
+          int b = sc.nextInt();
 
-        if (r < 0 || r > max || g < 0 || g > max || b < 0 || b > max) {
-          throw new IllegalArgumentException("Please provide a valid file");
-        }
+          if (r < 0 || r > max || g < 0 || g > max || b < 0 || b > max) {
+            throw new IllegalArgumentException("Please provide a valid file");
+          }
 
-        newImage.setPixel(i, j, new RGBPixel(r, g, b, max));
+          red[j] = r;
+          green[j] = g;
+          blue[j] = b;
+        }
+        newImage.setRow(i, red, green, blue);
       }
+    } catch (RuntimeException e) {
+      newImage.release();
+      throw e;
+    }
+    // The same image loaded before is shared instead of being kept twice
+    Image loaded = contents.intern(newImage);
+    if (loaded != newImage) {
+      newImage.release();
     }
-    images.put(imageName, newImage);
+    store(imageName, loaded);
   }
 
   @Override
   public OutputStream writeData(String imageName) throws IOException {
-    Image requiredImage = getImage(imageName);
-    StringBuilder sb = new StringBuilder();
-    int width = requiredImage.getWidth();
-    int height = requiredImage.getHeight();
-    int max = requiredImage.getMax();
-    sb.append(width).append(" ").append(height).append(System.lineSeparator());
-    sb.append(max).append(System.lineSeparator());
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        sb.append(requiredImage.getPixel(i, j).getRed()).append(System.lineSeparator());
-        sb.append(requiredImage.getPixel(i, j).getGreen()).append(System.lineSeparator());
-        sb.append(requiredImage.getPixel(i, j).getBlue()).append(System.lineSeparator());
+    Image requiredImage = lookup(imageName);
+    try {
+      requiredImage = evaluate(imageName, requiredImage);
+      StringBuilder sb = new StringBuilder();
+      int width = requiredImage.getWidth();
+      int height = requiredImage.getHeight();
+      int max = requiredImage.getMax();
+      sb.append(width).append(" ").append(height).append(System.lineSeparator());
+      sb.append(max).append(System.lineSeparator());
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int i = 0; i < height; i++) {
+        requiredImage.getRow(i, red, green, blue);
+        for (int j = 0; j < width; j++) {
+          sb.append(red[j]).append(System.lineSeparator());
+          sb.append(green[j]).append(System.lineSeparator());
+          sb.append(blue[j]).append(System.lineSeparator());
+        }
       }
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      outputStream.write(sb.toString().getBytes());
+      return outputStream;
+    } finally {
+      requiredImage.release();
     }
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    outputStream.write(sb.toString().getBytes());
-    return outputStream;
   }
 
   /**
    * Method to get an image by name.
    * This is specifically package private method, that should be available only to the model.
    * Availability of the Image and editing its data should be happening through the model.
+   * Images that are yet to be computed are evaluated before they are returned. The image is
+   * retained for the caller, so that it stays valid if another request replaces, removes or
+   * spills it meanwhile, the caller releases it once it is done with it.
    *
    * @param imageName name that represents an Image
-   * @return the image if found
+   * @return the retained image if found
    */
   Image getImage(String imageName) {
-    if (images.containsKey(imageName)) {
-      return images.get(imageName);
+    Image image = lookup(imageName);
+    try {
+      return evaluate(imageName, image);
+    } catch (RuntimeException e) {
+      image.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Computes an image of the session if it is yet to be computed. When an image with the same
+   * content is already in the session, the name is switched over to that image so that the
+   * duplicates share one buffer.
+   *
+   * @param imageName name of the image
+   * @param image     the image stored under the name, retained by the caller
+   * @return the image the name holds once evaluated, retained for the caller in place of the
+   *         given image
+   */
+  private Image evaluate(String imageName, Image image) {
+    if (!(image instanceof LazyImage)) {
+      return image;
+    }
+    Image value = ((LazyImage) image).evaluate();
+    Image shared = contents.intern(value);
+    if (shared == value) {
+      return image;
+    }
+    // The shared image comes retained once for the name, and once more for the caller
+    shared.retain();
+    if (images.replace(imageName, image, shared)) {
+      image.release();
+      if (imageStore != null) {
+        imageStore.put(imageName, shared);
+      }
+      image.release();
+      return shared;
+    }
+    shared.release();
+    shared.release();
+    return image;
+  }
+
+  /**
+   * Method to look up an image by name without evaluating it, so that operations can be chained
+   * on images that are yet to be computed. The image is retained for the caller, so that it stays
+   * valid if another request replaces or removes it meanwhile, the caller releases it once it is
+   * done with it.
+   *
+   * @param imageName name that represents an Image
+   * @return the retained image if found
+   */
+  protected Image lookup(String imageName) {
+    Image image = images.acquire(imageName);
+    if (image != null) {
+      return image;
     } else {
       throw new InputMismatchException("Image " + imageName + " not found " + "Please try again "
               + "with valid image.");
     }
   }
 
+  /**
+   * Stores an image in the session under the given name. The image that was stored under the
+   * name before, if any, is dropped and its memory is released. Images loaded into the store are
+   * persisted right away, other images are persisted when the session is closed.
+   *
+   * @param imageName name in which the image has to be stored
+   * @param image     the image to be stored
+   */
+  protected void store(String imageName, Image image) {
+    Image previous = images.put(imageName, image);
+    if (previous != null && previous != image) {
+      previous.release();
+    }
+    if (imageStore != null) {
+      imageStore.put(imageName, image);
+    }
+  }
+
+  @Override
+  public void remove(String imageName) {
+    if (!images.contains(imageName)) {
+      throw new InputMismatchException("Image " + imageName + " not found " + "Please try again "
+              + "with valid image.");
+    }
+    Image removed = images.remove(imageName);
+    if (removed != null) {
+      removed.release();
+    }
+    if (imageStore != null) {
+      imageStore.remove(imageName);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getRegistryMetrics() {
+    Map<String, Long> metrics = new LinkedHashMap<>();
+    metrics.put("residentBytes", images.getResidentBytes());
+    metrics.put("maxBytes", images.getMaxBytes());
+    metrics.put("hits", images.getHits());
+    metrics.put("misses", images.getMisses());
+    metrics.put("spills", images.getSpills());
+    return metrics;
+  }
+
+  /**
+   * Gets the statistics of an image of the session, the image keeps them so that they are
+   * computed once however many times they are asked for.
+   *
+   * @param imageName name that represents an Image
+   * @return the statistics of the image
+   */
+  private ImageStatistics statistics(String imageName) {
+    Image image = lookup(imageName);
+    try {
+      return image instanceof AbstractImage ? ((AbstractImage) image).statistics()
+              : ImageStatistics.of(image);
+    } finally {
+      image.release();
+    }
+  }
+
+  @Override
+  public Map<String, long[]> getHistogram(String imageName) {
+    return statistics(imageName).getHistograms();
+  }
+
+  @Override
+  public Map<String, Map<String, Double>> getStatistics(String imageName) {
+    return statistics(imageName).getStatistics();
+  }
+
+  /**
+   * Closes the session. When the images are persisted, the images that are not in the store yet,
+   * such as the results of the operations, are written to the store so that they are found again
+   * once the session is restarted. Results that were never computed are not computed on close,
+   * they are dropped with the session as nothing asked for their pixels.
+   */
+  @Override
+  public void close() {
+    if (imageStore == null) {
+      return;
+    }
+    for (String imageName : images.names()) {
+      Image image = imageStore.contains(imageName) ? null : images.acquire(imageName);
+      if (image == null) {
+        continue;
+      }
+      try {
+        if (image instanceof LazyImage && !((LazyImage) image).isEvaluated()) {
+          continue;
+        }
+        image = evaluate(imageName, image);
+        Image previous = images.put(imageName, imageStore.persist(imageName, image, storage));
+        if (previous != null) {
+          previous.release();
+        }
+      } finally {
+        image.release();
+      }
+    }
+  }
+
+  /**
+   * Derives a new image from an image of the session and stores it. The source image is held
+   * for the duration of the operation.
+   *
+   * @param image     name of the image on which the operation has to be done
+   * @param result    name in which the resulting image has to be stored
+   * @param operation the operation that derives the new image from the source image
+   */
+  protected void derive(String image, String result, Function<Image, Image> operation) {
+    Image source = lookup(image);
+    try {
+      store(result, operation.apply(source));
+    } finally {
+      source.release();
+    }
+  }
+
   @Override
   public void brighten(int value, String image, String result) {
-    Image baseImage = getImage(image);
-    Filter brighten = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getRed()
-            + value, base.getPixel(i, j).getGreen() + value, base.getPixel(i, j).getBlue()
-            + value, base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(brighten));
+    Filter brighten = new PointFilter(new ChannelOperation(channel -> channel + value));
+    derive(image, result, source -> LazyImage.of(source, brighten));
   }
 
+
   @Override
   public void verticalFlip(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter verticalF = new PixelFilter(base -> i -> j ->
-            base.getPixel(base.getHeight() - 1 - i, j));
-    images.put(result, baseImage.applyFilter(verticalF));
+    derive(image, result, source -> new FlipView(source, true));
   }
 
-
   @Override
   public void horizontalFlip(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter horizontalF = new PixelFilter(base -> i -> j ->
-            base.getPixel(i, base.getWidth() - 1 - j));
-    images.put(result, baseImage.applyFilter(horizontalF));
+    derive(image, result, source -> new FlipView(source, false));
   }
 
   @Override
   public void redGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter redGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getRed(), base.getPixel(i, j).getRed(),
-                    base.getPixel(i, j).getRed(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(redGrey));
+    derive(image, result, source -> new ChannelView(source, Channel.RED));
   }
 
   @Override
   public void greenGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter greenGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getGreen(), base.getPixel(i, j).getGreen(),
-                    base.getPixel(i, j).getGreen(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(greenGrey));
+    derive(image, result, source -> new ChannelView(source, Channel.GREEN));
   }
 
   @Override
   public void blueGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter blueGrey = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getBlue(),
-            base.getPixel(i, j).getBlue(),
-            base.getPixel(i, j).getBlue(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(blueGrey));
+    derive(image, result, source -> new ChannelView(source, Channel.BLUE));
   }
 
   @Override
   public void valueGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter valueGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getValue(), base.getPixel(i, j).getValue(),
-                    base.getPixel(i, j).getValue(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(valueGrey));
+    Filter valueGrey = new PointFilter((red, green, blue, width, max) -> {
+      for (int j = 0; j < width; j++) {
+        int value = Math.max(red[j], Math.max(green[j], blue[j]));
+        red[j] = value;
+        green[j] = value;
+        blue[j] = value;
+      }
+    });
+    derive(image, result, source -> LazyImage.of(source, valueGrey));
+  }
+
+
+  /**
+   * Method to return the filter that makes an image grey using the luma of its pixels, the
+   * weighted sum 0.2126 * r + 0.7152 * g + 0.0722 * b.
+   *
+   * @return a new instance of Filter that applies the luma greyscale.
+   */
+  protected Filter getLumaFilter() {
+    return new PointFilter(GreyscaleOperation.luma());
   }
 
   @Override
   public void lumaGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter lumaGrey = new PixelFilter(base -> i -> j -> new RGBPixel(base.getPixel(i, j).getLuma(),
-            base.getPixel(i, j).getLuma(), base.getPixel(i, j).getLuma(),
-            base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(lumaGrey));
+    derive(image, result, source -> LazyImage.of(source, getLumaFilter()));
   }
 
+
   @Override
   public void intensityGreyscale(String image, String result) {
-    Image baseImage = getImage(image);
-    Filter intensityGrey = new PixelFilter(base -> i -> j ->
-            new RGBPixel(base.getPixel(i, j).getIntensity(), base.getPixel(i, j).getIntensity(),
-                    base.getPixel(i, j).getIntensity(), base.getPixel(i, j).getMax()));
-    images.put(result, baseImage.applyFilter(intensityGrey));
+    Filter intensityGrey = new PointFilter(GreyscaleOperation.intensity());
+    derive(image, result, source -> LazyImage.of(source, intensityGrey));
   }
 
+
   @Override
   public void rgbSplit(String image, String redResult, String greenResult, String blueResult) {
-    this.redGreyscale(image, redResult);
-    this.greenGreyscale(image, greenResult);
-    this.blueGreyscale(image, blueResult);
+    Image source = lookup(image);
+    try {
+      // The three channels are split in one pass over the source when one of them is needed
+      ChannelSplit split = new ChannelSplit(source);
+      store(redResult, split.lazyChannel(Channel.RED));
+      store(greenResult, split.lazyChannel(Channel.GREEN));
+      store(blueResult, split.lazyChannel(Channel.BLUE));
+    } finally {
+      source.release();
+    }
+  }
+
+  /**
+   * Combines the red channel of an image, the green channel of another and the blue channel of
+   * a third into a new image. Bands of rows are combined in parallel, channels stored as planes
+   * of samples of the same size as the combined image are copied in bulk.
+   *
+   * @param red   image whose red channel is used
+   * @param green image whose green channel is used
+   * @param blue  image whose blue channel is used
+   * @param max   max value of the combined image
+   * @return the combined image
+   */
+  private Image combine(Image red, Image green, Image blue, int max) {
+    int height = red.getHeight();
+    int width = red.getWidth();
+    Image combinedImage = storage.create(height, width, max);
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      if (copyPlane(combinedImage, Channel.RED, red, from, to)
+              && copyPlane(combinedImage, Channel.GREEN, green, from, to)
+              && copyPlane(combinedImage, Channel.BLUE, blue, from, to)) {
+        return;
+      }
+      // Otherwise every channel of the band goes through rows of ints
+      int[] reds = new int[width];
+      int[] greens = new int[width];
+      int[] blues = new int[width];
+      int[] unused = new int[width];
+      for (int i = from; i < to; i++) {
+        red.getRow(i, reds, unused, unused);
+        green.getRow(i, unused, greens, unused);
+        blue.getRow(i, unused, unused, blues);
+        combinedImage.setRow(i, reds, greens, blues);
+      }
+    });
+    return combinedImage;
+  }
+
+  /**
+   * Copies a band of rows of a channel of an image into the same channel of an image in bulk.
+   *
+   * @param target  the image receiving the channel
+   * @param channel the channel to be copied
+   * @param source  the image whose channel is copied
+   * @param from    first row to be copied
+   * @param to      row after the last row to be copied
+   * @return true if the rows were copied, false if they have to be copied through rows of ints
+   */
+  private static boolean copyPlane(Image target, Channel channel, Image source, int from,
+                                   int to) {
+    return target instanceof AbstractImage
+            && ((AbstractImage) target).copyPlane(channel, source, from, to);
   }
 
   @Override
   public void rgbCombine(String redImage, String greenImage, String blueImage, String resultImage) {
-    Image red = getImage(redImage);
-    Image green = getImage(greenImage);
-    Image blue = getImage(blueImage);
-    if (red.getHeight() == green.getHeight() && blue.getHeight() == red.getHeight()
-            && red.getWidth() == blue.getWidth() && red.getWidth() == green.getWidth()) {
-      // Max value image
-      int maxValue = Math.max(red.getMax(), Math.max(green.getMax(), blue.getMax()));
-      Image combinedImage = new RGBImage(red.getHeight(), red.getWidth(), maxValue);
-      for (int i = 0; i < combinedImage.getHeight(); i++) {
-        for (int j = 0; j < combinedImage.getWidth(); j++) {
-          combinedImage.setPixel(i, j, new RGBPixel(red.getPixel(i, j).getRed(),
-                  green.getPixel(i, j).getGreen(), blue.getPixel(i, j).getBlue(), maxValue));
-        }
+    List<Image> sources = new ArrayList<>();
+    try {
+      for (String imageName : new String[]{redImage, greenImage, blueImage}) {
+        sources.add(lookup(imageName));
+      }
+      Image red = sources.get(0);
+      Image green = sources.get(1);
+      Image blue = sources.get(2);
+      if (red.getHeight() == green.getHeight() && blue.getHeight() == red.getHeight()
+              && red.getWidth() == blue.getWidth() && red.getWidth() == green.getWidth()) {
+        // Max value image
+        int maxValue = Math.max(red.getMax(), Math.max(green.getMax(), blue.getMax()));
+        store(resultImage, new LazyImage(red.getHeight(), red.getWidth(), maxValue, storage,
+                () -> combine(red, green, blue, maxValue), red, green, blue));
+      } else {
+        throw new IllegalArgumentException("To combine, images should be of same dimensions");
+      }
+    } finally {
+      for (Image source : sources) {
+        source.release();
       }
-      images.put(resultImage, combinedImage);
-    } else {
-      throw new IllegalArgumentException("To combine, images should be of same dimensions");
     }
   }
+
 }
@@ -42,6 +42,102 @@ interface Image {
    */
   void setPixel(int x, int y, Pixel p);
 
+  /**
+   * Gets the red channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the red value
+   */
+  int getRed(int x, int y);
+
+  /**
+   * Gets the green channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the green value
+   */
+  int getGreen(int x, int y);
+
+  /**
+   * Gets the blue channel of a pixel without creating a Pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the blue value
+   */
+  int getBlue(int x, int y);
+
+  /**
+   * Sets all the channels of a pixel, values are clamped between 0 and the max of the image.
+   *
+   * @param x     representing the row
+   * @param y     representing the column
+   * @param red   the red value
+   * @param green the green value
+   * @param blue  the blue value
+   */
+  void setRGB(int x, int y, int red, int green, int blue);
+
+  /**
+   * Copies a whole row of the image into the given channel buffers, each of them should be at
+   * least as long as the width of the image.
+   *
+   * @param x     the row to be read
+   * @param red   buffer that receives the red values
+   * @param green buffer that receives the green values
+   * @param blue  buffer that receives the blue values
+   */
+  void getRow(int x, int[] red, int[] green, int[] blue);
+
+  /**
+   * Writes a whole row of the image from the given channel buffers, values are clamped between 0
+   * and the max of the image.
+   *
+   * @param x     the row to be written
+   * @param red   buffer holding the red values
+   * @param green buffer holding the green values
+   * @param blue  buffer holding the blue values
+   */
+  void setRow(int x, int[] red, int[] green, int[] blue);
+
+  /**
+   * Gets the storage in which the pixels of the image are held, new images derived from this
+   * image should be created in the same storage.
+   *
+   * @return the storage of the image
+   */
+  ImageStorage getStorage();
+
+  /**
+   * Marks that one more holder uses the image, for example a view that shares its pixels. The
+   * memory of the image is freed only once every holder has released it.
+   */
+  void retain();
+
+  /**
+   * Releases the memory held by the image. The image should not be used once it is released.
+   */
+  void release();
+
+  /**
+   * Gets an image that holds the pixels of this image in its own storage. Images that already
+   * own their storage return themselves, views return a copy of the pixels they show.
+   *
+   * @return an image that owns its storage
+   */
+  Image materialize();
+
+  /**
+   * Gets a 64-bit hash of the content of the image, its dimensions, its max and its pixels.
+   * Images with the same content have the same hash. The hash is computed once and kept until the
+   * pixels of the image are changed.
+   *
+   * @return the content hash
+   */
+  long contentHash();
+
   /**
    * Method that applies a specific filter to the image to generate a new image with filter.
    *
@@ -0,0 +1,801 @@
+package ime.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the images of a session by name within a budget of bytes.
+ * Images are kept in memory in least recently used order. When the pixels held in memory exceed
+ * the budget, the least recently used images are spilled to files in a spill directory and
+ * released, an image that was spilled is read back into memory the next time it is looked up.
+ * An image shared by several names is spilled once into one file that all of its names refer
+ * to, and is read back once: the image read back is interned in the content store of the
+ * registry, so the names still share one image.
+ * The registry counts the look-ups that found the image in memory (hits), the look-ups that had
+ * to read the image back from its file (misses) and the images spilled to files (spills).
+ * The registry is shared by the threads serving the session. The names are held in a concurrent
+ * map and every name has its own read/write lock: looking up images takes the read lock of their
+ * name only, so look-ups run in parallel, while storing, removing, spilling or reading back an
+ * image takes the write lock of its name. Images are returned retained, so an image that is
+ * replaced or spilled while a thread uses it is only freed once that thread releases it.
+ * The bytes held in memory are counted as images are stored, removed, spilled, read back or
+ * computed, so that a look-up only walks the names when the budget is exceeded.
+ */
+public class ImageRegistry {
+  private final long maxBytes;
+  private final ConcurrentHashMap<String, Entry> entries;
+  private final ReentrantLock trimming;
+  private final AtomicLong clock;
+  private final AtomicLong spillFiles;
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong spills;
+  private final ContentStore contents;
+  private final Map<Image, Resident> residents;
+  private final Set<Entry> pending;
+  private volatile long residentBytes;
+  private long changes;
+  private long stalledAt;
+  private Entry stalledKeep;
+  private volatile Path spillDirectory;
+
+  /**
+   * The image stored under a name, held in memory or in a spill file, with the lock of the name.
+   */
+  private static final class Entry {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Image image;
+    private volatile Spill spill;
+    private volatile long lastUsed;
+    private boolean removed;
+    // The image the entry is counted for in the resident bytes, guarded by the residents
+    private Image counted;
+  }
+
+  /**
+   * The bytes of pixels held in memory by an image and the number of names holding it, so that
+   * an image shared by several names is counted once.
+   */
+  private static final class Resident {
+    private int names;
+    private long size;
+  }
+
+  /**
+   * The file of a spilled image, shared by every name the image was stored under. The file is
+   * deleted once none of the names refers to it anymore.
+   */
+  private static final class Spill {
+    private final Path file;
+    private int names;
+    private Image loaded;
+
+    /**
+     * Constructs the spill of an image stored under a number of names.
+     *
+     * @param file  the file the image was written to
+     * @param names number of names referring to the file
+     */
+    private Spill(Path file, int names) {
+      this.file = file;
+      this.names = names;
+    }
+  }
+
+  /**
+   * Constructs a registry without a budget, images are never spilled.
+   */
+  public ImageRegistry() {
+    this(Long.MAX_VALUE, null);
+  }
+
+  /**
+   * Constructs a registry that keeps at most the given number of bytes of pixels in memory.
+   *
+   * @param maxBytes       the budget of bytes of pixels held in memory
+   * @param spillDirectory directory in which spilled images are written, a temporary directory
+   *                       is created on the first spill when it is null
+   */
+  public ImageRegistry(long maxBytes, Path spillDirectory) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Please provide a valid budget for the images");
+    }
+    this.maxBytes = maxBytes;
+    this.spillDirectory = spillDirectory;
+    this.entries = new ConcurrentHashMap<>();
+    this.trimming = new ReentrantLock();
+    this.clock = new AtomicLong();
+    this.spillFiles = new AtomicLong();
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+    this.spills = new AtomicLong();
+    this.contents = new ContentStore();
+    this.residents = new IdentityHashMap<>();
+    this.pending = new HashSet<>();
+    this.stalledAt = -1;
+  }
+
+  /**
+   * Gets the content store that indexes the images of the registry, images read back from their
+   * spill file are interned in it.
+   *
+   * @return the content store
+   */
+  ContentStore contents() {
+    return contents;
+  }
+
+  /**
+   * Checks whether an image is stored under the given name, in memory or spilled.
+   *
+   * @param name name of the image
+   * @return true if an image is stored under the name
+   */
+  boolean contains(String name) {
+    Entry entry = entries.get(name);
+    return entry != null && (entry.image != null || entry.spill != null);
+  }
+
+  /**
+   * Gets the image stored under the given name, reading it back into memory if it was spilled.
+   * The image is retained for the caller, which releases it once it is done with it.
+   * Images computed since the last look-up may have grown past the budget, so the least recently
+   * used images are spilled if needed.
+   *
+   * @param name name of the image
+   * @return the retained image, or null if no image is stored under the name
+   */
+  Image acquire(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return null;
+    }
+    Image image;
+    entry.lock.readLock().lock();
+    try {
+      image = entry.image;
+      if (image != null) {
+        image.retain();
+        hits.incrementAndGet();
+      }
+    } finally {
+      entry.lock.readLock().unlock();
+    }
+    if (image == null) {
+      image = reload(entry);
+      if (image == null) {
+        return null;
+      }
+    }
+    entry.lastUsed = clock.incrementAndGet();
+    trim(entry);
+    return image;
+  }
+
+  /**
+   * Reads a spilled image back into memory.
+   *
+   * @param entry the entry of the image
+   * @return the retained image, or null if the image was removed
+   */
+  private Image reload(Entry entry) {
+    entry.lock.writeLock().lock();
+    try {
+      if (entry.image == null) {
+        if (entry.spill == null) {
+          return null;
+        }
+        misses.incrementAndGet();
+        entry.image = load(entry.spill);
+        drop(entry.spill);
+        entry.spill = null;
+        account(entry);
+      } else {
+        hits.incrementAndGet();
+      }
+      entry.image.retain();
+      return entry.image;
+    } finally {
+      entry.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the image of a spill file, reading it only if the image read back for another name of
+   * the file has been released meanwhile. The image read from the file is interned, so that it
+   * is shared with an image of the same content still in memory.
+   *
+   * @param spill the spill file
+   * @return the image, retained for the name reading it back
+   */
+  private Image load(Spill spill) {
+    synchronized (spill) {
+      Image loaded = spill.loaded;
+      if (loaded instanceof AbstractImage && ((AbstractImage) loaded).tryRetain()) {
+        return loaded;
+      }
+      Image image = read(spill.file);
+      loaded = contents.intern(image);
+      if (loaded != image) {
+        image.release();
+      }
+      spill.loaded = loaded;
+      return loaded;
+    }
+  }
+
+  /**
+   * Drops the reference of a name to a spill file, the file is deleted once no name refers to
+   * it.
+   *
+   * @param spill the spill file, may be null
+   */
+  private void drop(Spill spill) {
+    if (spill == null) {
+      return;
+    }
+    synchronized (spill) {
+      if (--spill.names > 0) {
+        return;
+      }
+      spill.loaded = null;
+    }
+    delete(spill.file);
+  }
+
+  /**
+   * Stores an image under the given name, spilling the least recently used images if the budget
+   * is exceeded. The image stored under the name before is returned so that it can be released.
+   *
+   * @param name  name of the image
+   * @param image the image to be stored
+   * @return the image that was held in memory under the name, or null if there was none
+   */
+  Image put(String name, Image image) {
+    while (true) {
+      Entry entry = entries.computeIfAbsent(name, key -> new Entry());
+      Spill spill;
+      Image previous;
+      entry.lock.writeLock().lock();
+      try {
+        if (entry.removed) {
+          // The name was removed meanwhile, store the image in a new entry
+          continue;
+        }
+        previous = entry.image;
+        spill = entry.spill;
+        entry.image = image;
+        entry.spill = null;
+        entry.lastUsed = clock.incrementAndGet();
+      } finally {
+        entry.lock.writeLock().unlock();
+      }
+      drop(spill);
+      account(entry);
+      trim(entry);
+      return previous;
+    }
+  }
+
+  /**
+   * Replaces the image stored under the given name if it is still the expected image.
+   *
+   * @param name        name of the image
+   * @param expected    the image expected under the name
+   * @param replacement the image to be stored instead
+   * @return true if the image was replaced, false if the name holds another image meanwhile
+   */
+  boolean replace(String name, Image expected, Image replacement) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return false;
+    }
+    entry.lock.writeLock().lock();
+    try {
+      if (entry.image != expected) {
+        return false;
+      }
+      entry.image = replacement;
+      entry.lastUsed = clock.incrementAndGet();
+      account(entry);
+      return true;
+    } finally {
+      entry.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the image stored under the given name, the file of a spilled image is deleted.
+   *
+   * @param name name of the image
+   * @return the image that was held in memory under the name, or null if there was none
+   */
+  Image remove(String name) {
+    Entry entry = entries.remove(name);
+    if (entry == null) {
+      return null;
+    }
+    Image image;
+    Spill spill;
+    entry.lock.writeLock().lock();
+    try {
+      entry.removed = true;
+      image = entry.image;
+      spill = entry.spill;
+      entry.image = null;
+      entry.spill = null;
+    } finally {
+      entry.lock.writeLock().unlock();
+    }
+    drop(spill);
+    account(entry);
+    return image;
+  }
+
+  /**
+   * Gets the names of the images stored in the registry, in memory or spilled.
+   *
+   * @return a copy of the names
+   */
+  Set<String> names() {
+    Set<String> names = new LinkedHashSet<>();
+    for (String name : entries.keySet()) {
+      if (contains(name)) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Gets the number of look-ups that found the image in memory.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of look-ups that read the image back from its spill file.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of images spilled to files.
+   *
+   * @return the number of spills
+   */
+  public long getSpills() {
+    return spills.get();
+  }
+
+  /**
+   * Gets the budget of bytes of pixels held in memory.
+   *
+   * @return the budget in bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Gets the bytes of pixels currently held in memory by the images of the registry.
+   *
+   * @return the resident bytes
+   */
+  public long getResidentBytes() {
+    synchronized (residents) {
+      recountPending();
+      return residentBytes;
+    }
+  }
+
+  /**
+   * Counts the image now stored under a name in the resident bytes in place of the image it was
+   * counted for before. A lazy image holds no bytes until it is computed, its entry is kept
+   * aside until then so that its value is counted once it is known.
+   *
+   * @param entry the entry of the name
+   */
+  private void account(Entry entry) {
+    synchronized (residents) {
+      if (recount(entry)) {
+        pending.add(entry);
+      } else {
+        pending.remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Counts the values of the lazy images computed since they were stored.
+   */
+  private void recountPending() {
+    synchronized (residents) {
+      pending.removeIf(entry -> !recount(entry));
+    }
+  }
+
+  /**
+   * Counts the image stored under a name if it is not the image the name is counted for, or
+   * counts the bytes of a lazy image again, the residents being locked.
+   *
+   * @param entry the entry of the name
+   * @return true if the name holds a lazy image yet to be computed
+   */
+  private boolean recount(Entry entry) {
+    Image image = resolve(entry.image);
+    if (image != entry.counted) {
+      uncount(entry.counted);
+      count(image);
+      entry.counted = image;
+      changes++;
+    } else if (image instanceof LazyImage) {
+      Resident resident = residents.get(image);
+      long size = sizeOf(image);
+      if (size != resident.size) {
+        residentBytes += size - resident.size;
+        resident.size = size;
+        changes++;
+      }
+    }
+    return image instanceof LazyImage;
+  }
+
+  /**
+   * Adds a name to the holders of an image, the bytes of the image are counted for its first
+   * name.
+   *
+   * @param image the image, may be null
+   */
+  private void count(Image image) {
+    if (image == null) {
+      return;
+    }
+    Resident resident = residents.computeIfAbsent(image, key -> new Resident());
+    if (resident.names++ == 0) {
+      resident.size = sizeOf(image);
+      residentBytes += resident.size;
+    }
+  }
+
+  /**
+   * Removes a name from the holders of an image, the bytes of the image are no longer counted
+   * once no name holds it.
+   *
+   * @param image the image, may be null
+   */
+  private void uncount(Image image) {
+    if (image == null) {
+      return;
+    }
+    Resident resident = residents.get(image);
+    if (--resident.names == 0) {
+      residents.remove(image);
+      residentBytes -= resident.size;
+    }
+  }
+
+  /**
+   * Gets the image holding the pixels of an image stored under a name, the value of a lazy image
+   * that has been evaluated.
+   *
+   * @param image the image stored under a name, may be null
+   * @return the image holding the pixels
+   */
+  private static Image resolve(Image image) {
+    if (image instanceof LazyImage && ((LazyImage) image).isEvaluated()) {
+      return ((LazyImage) image).evaluate();
+    }
+    return image;
+  }
+
+  /**
+   * Spills the least recently used images until the pixels held in memory fit in the budget.
+   * Views and images yet to be computed hold no pixels of their own and are never spilled, nor
+   * are images mapped from files whose pages the operating system already writes back.
+   * The names sharing an image are spilled together into one file, and only when releasing them
+   * frees the image: an image still held by a view, by a lazy image yet to be computed or by a
+   * thread using it stays in memory, since spilling it would free nothing.
+   * Only one thread trims at a time, the others carry on since the budget is being restored.
+   * Images whose names are locked by another thread are skipped.
+   * The names are only walked when the resident bytes exceed the budget. When a walk could not
+   * restore the budget, the names are not walked again for the same image until an image is
+   * stored, removed, spilled or computed, since nothing more could be spilled.
+   *
+   * @param keep entry of the image that was just used, it is never spilled
+   */
+  private void trim(Entry keep) {
+    if (maxBytes == Long.MAX_VALUE || !trimming.tryLock()) {
+      return;
+    }
+    try {
+      synchronized (residents) {
+        recountPending();
+        if (residentBytes <= maxBytes || (changes == stalledAt && keep == stalledKeep)) {
+          return;
+        }
+      }
+      // The names of every image, on a snapshot of their last use since other threads keep
+      // using them, the image used least recently by any of its names goes first
+      Map<Image, List<Entry>> names = new IdentityHashMap<>();
+      Map<Image, Long> lastUsed = new IdentityHashMap<>();
+      for (Entry entry : entries.values()) {
+        Image image = resolve(entry.image);
+        if (image != null) {
+          names.computeIfAbsent(image, key -> new ArrayList<>()).add(entry);
+          lastUsed.merge(image, entry.lastUsed, Math::max);
+        }
+      }
+      List<Image> candidates = new ArrayList<>(names.keySet());
+      candidates.sort(Comparator.comparingLong(lastUsed::get));
+      for (Image image : candidates) {
+        if (residentBytes <= maxBytes) {
+          break;
+        }
+        List<Entry> group = names.get(image);
+        if (sizeOf(image) == 0 || group.contains(keep)) {
+          continue;
+        }
+        if (spill(image, group)) {
+          spills.incrementAndGet();
+        }
+      }
+      synchronized (residents) {
+        stalledAt = residentBytes > maxBytes ? changes : -1;
+        stalledKeep = keep;
+      }
+    } finally {
+      trimming.unlock();
+    }
+  }
+
+  /**
+   * Spills an image stored under a group of names into one file, if releasing the names frees
+   * the image.
+   *
+   * @param image the image holding the pixels
+   * @param group the entries of the names of the image
+   * @return true if the image was spilled and freed
+   */
+  private boolean spill(Image image, List<Entry> group) {
+    List<Entry> locked = new ArrayList<>();
+    List<Image> released = new ArrayList<>();
+    try {
+      for (Entry entry : group) {
+        if (!entry.lock.writeLock().tryLock()) {
+          return false;
+        }
+        locked.add(entry);
+        if (resolve(entry.image) != image) {
+          return false;
+        }
+      }
+      if (!releasesLast(image, group)) {
+        return false;
+      }
+      Spill spill = new Spill(write(image), group.size());
+      for (Entry entry : group) {
+        released.add(entry.image);
+        entry.image = null;
+        entry.spill = spill;
+        account(entry);
+      }
+      return true;
+    } finally {
+      for (Entry entry : locked) {
+        entry.lock.writeLock().unlock();
+      }
+      for (Image name : released) {
+        name.release();
+      }
+    }
+  }
+
+  /**
+   * Checks whether releasing the images stored under a group of names frees the image holding
+   * their pixels, that is whether the names are its only holders. The names hold the image
+   * either directly or through evaluated lazy images, which each hold the image once.
+   *
+   * @param image the image holding the pixels
+   * @param group the entries of the names of the image, locked
+   * @return true if the names are the only holders of the image
+   */
+  private static boolean releasesLast(Image image, List<Entry> group) {
+    Map<Image, Integer> holders = new IdentityHashMap<>();
+    for (Entry entry : group) {
+      holders.merge(entry.image, 1, Integer::sum);
+    }
+    int expected = 0;
+    for (Map.Entry<Image, Integer> holder : holders.entrySet()) {
+      if (holder.getKey() == image) {
+        expected += holder.getValue();
+      } else if (heldBy(holder.getKey(), holder.getValue())) {
+        expected++;
+      } else {
+        return false;
+      }
+    }
+    return heldBy(image, expected);
+  }
+
+  /**
+   * Checks whether an image has exactly the given number of holders.
+   *
+   * @param image   the image
+   * @param holders the number of holders
+   * @return true if the image has that many holders
+   */
+  private static boolean heldBy(Image image, int holders) {
+    return image instanceof AbstractImage && ((AbstractImage) image).holders() == holders;
+  }
+
+  /**
+   * Gets the bytes of pixels held in memory by an image, samples take one, two or four bytes
+   * based on the max value as in the storages, and grey images hold one plane instead of three.
+   * Images mapped from files are paged by the operating system and are not counted.
+   *
+   * @param image the image
+   * @return the bytes held by the image
+   */
+  static long sizeOf(Image image) {
+    if (image instanceof ImageView || image instanceof MappedImage) {
+      return 0;
+    }
+    if (image instanceof LazyImage) {
+      LazyImage lazy = (LazyImage) image;
+      return lazy.isEvaluated() ? sizeOf(lazy.evaluate()) : 0;
+    }
+    return SegmentImage.byteSize(image.getHeight(), image.getWidth(), image.getMax(),
+            planesOf(image));
+  }
+
+  /**
+   * Gets the number of channel planes an image holds, 1 for a greyscale image and 3 otherwise.
+   *
+   * @param image the image
+   * @return 1 or 3
+   */
+  static int planesOf(Image image) {
+    return image instanceof AbstractImage ? ((AbstractImage) image).planes() : 3;
+  }
+
+  /**
+   * Writes an image to a new file in the spill directory. The file holds the storage, the height,
+   * the width, the max and the number of planes of the image followed by its rows, each row
+   * holding its red, green and blue samples one after the other, or its grey samples alone for a
+   * greyscale image.
+   *
+   * @param image the image to be written
+   * @return the file the image was written to
+   */
+  private Path write(Image image) {
+    int width = image.getWidth();
+    int bytes = SegmentImage.sampleSize(image.getMax());
+    int planes = planesOf(image);
+    int[][] channels = new int[3][width];
+    ByteBuffer row = ByteBuffer.allocate(planes * width * bytes);
+    try {
+      if (spillDirectory == null) {
+        spillDirectory = Files.createTempDirectory("ime-spill");
+      }
+      Files.createDirectories(spillDirectory);
+      Path file = spillDirectory.resolve("image-" + spillFiles.getAndIncrement() + ".bin");
+      try (DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(file)))) {
+        out.writeInt(image.getStorage().ordinal());
+        out.writeInt(image.getHeight());
+        out.writeInt(width);
+        out.writeInt(image.getMax());
+        out.writeInt(planes);
+        for (int i = 0; i < image.getHeight(); i++) {
+          image.getRow(i, channels[0], channels[1], channels[2]);
+          row.clear();
+          for (int c = 0; c < planes; c++) {
+            int[] channel = channels[c];
+            for (int j = 0; j < width; j++) {
+              if (bytes == 1) {
+                row.put((byte) channel[j]);
+              } else if (bytes == 2) {
+                row.putShort((short) channel[j]);
+              } else {
+                row.putInt(channel[j]);
+              }
+            }
+          }
+          out.write(row.array(), 0, row.position());
+        }
+      }
+      return file;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not spill the image", e);
+    }
+  }
+
+  /**
+   * Reads an image back from its spill file into the storage it was created in, a greyscale
+   * image is read back as a greyscale image.
+   *
+   * @param file the spill file
+   * @return the image read from the file
+   */
+  private Image read(Path file) {
+    try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))) {
+      ImageStorage storage = ImageStorage.values()[in.readInt()];
+      int height = in.readInt();
+      int width = in.readInt();
+      int max = in.readInt();
+      int planes = in.readInt();
+      int bytes = SegmentImage.sampleSize(max);
+      Image image = planes == 1 ? storage.createGrey(height, width, max)
+              : storage.create(height, width, max);
+      int[][] channels = new int[planes][width];
+      ByteBuffer row = ByteBuffer.allocate(planes * width * bytes);
+      for (int i = 0; i < height; i++) {
+        in.readFully(row.array());
+        row.clear();
+        for (int[] channel : channels) {
+          for (int j = 0; j < width; j++) {
+            if (bytes == 1) {
+              channel[j] = row.get() & 0xFF;
+            } else if (bytes == 2) {
+              channel[j] = row.getShort() & 0xFFFF;
+            } else {
+              channel[j] = row.getInt();
+            }
+          }
+        }
+        if (planes == 1) {
+          // The one plane of a greyscale image is passed for every channel
+          image.setRow(i, channels[0], channels[0], channels[0]);
+        } else {
+          image.setRow(i, channels[0], channels[1], channels[2]);
+        }
+      }
+      return image;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read back the spilled image", e);
+    }
+  }
+
+  /**
+   * Deletes a spill file if there is one.
+   *
+   * @param file the spill file, may be null
+   */
+  private void delete(Path file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not delete the spilled image", e);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package ime.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The histograms and the statistics of the red, green and blue channels of an image and of its
+ * luma, 0.2126 * r + 0.7152 * g + 0.0722 * b rounded as in the luma greyscale.
+ * They are computed in one parallel pass over bands of rows: every thread counts the bands it
+ * runs into its own histograms and sums, which are merged once every band is done.
+ * A histogram has a bin per value up to a max value of 65535, so a pixel only costs an increment
+ * and the sums are taken from the histograms once merged. The values of images with a larger max
+ * are spread over 65536 bins of equal width and summed as they are counted.
+ */
+final class ImageStatistics {
+  private static final int MAX_BINS = 0xFFFF + 1;
+  private static final String[] NAMES = {"red", "green", "blue", "luma"};
+
+  private final Accumulator total;
+
+  /**
+   * Constructs the statistics from the merged counts of every thread.
+   *
+   * @param total the merged counts
+   */
+  private ImageStatistics(Accumulator total) {
+    this.total = total;
+  }
+
+  /**
+   * Computes the statistics of an image.
+   *
+   * @param image the image
+   * @return the statistics
+   */
+  static ImageStatistics of(Image image) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int max = image.getMax();
+    int bins = (int) Math.min((long) max + 1, MAX_BINS);
+    PointOperation luma = GreyscaleOperation.luma().withTable(max);
+
+    // The counts of each thread running bands, held here so that none outlives the pass
+    Map<Thread, Accumulator> accumulators = new ConcurrentHashMap<>();
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      Accumulator accumulator = accumulators.computeIfAbsent(Thread.currentThread(),
+              thread -> new Accumulator(bins));
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int i = from; i < to; i++) {
+        image.getRow(i, red, green, blue);
+        accumulator.add(0, red, width, max);
+        accumulator.add(1, green, width, max);
+        accumulator.add(2, blue, width, max);
+        // The luma replaces the channels of the row
+        luma.apply(red, green, blue, width, max);
+        accumulator.add(3, red, width, max);
+      }
+    });
+
+    Accumulator total = new Accumulator(bins);
+    for (Accumulator accumulator : accumulators.values()) {
+      total.merge(accumulator);
+    }
+    if (bins > max) {
+      total.summarize();
+    }
+    return new ImageStatistics(total);
+  }
+
+  /**
+   * Gets the histograms of the channels and of the luma.
+   *
+   * @return the histograms by name, red, green, blue and luma
+   */
+  Map<String, long[]> getHistograms() {
+    Map<String, long[]> result = new LinkedHashMap<>();
+    for (int c = 0; c < NAMES.length; c++) {
+      result.put(NAMES[c], total.histograms[c].clone());
+    }
+    return result;
+  }
+
+  /**
+   * Gets the smallest and largest values, the mean and the standard deviation of the channels
+   * and of the luma. The values of an empty image are all 0.
+   *
+   * @return the statistics by name, min, max, mean and stddev, of the red, green and blue
+   *         channels and of the luma
+   */
+  Map<String, Map<String, Double>> getStatistics() {
+    Map<String, Map<String, Double>> result = new LinkedHashMap<>();
+    for (int c = 0; c < NAMES.length; c++) {
+      long count = total.count[c];
+      double mean = count == 0 ? 0 : (double) total.sums[c] / count;
+      double variance = count == 0 ? 0 : total.squares[c] / count - mean * mean;
+      Map<String, Double> statistics = new LinkedHashMap<>();
+      statistics.put("min", count == 0 ? 0.0 : total.min[c]);
+      statistics.put("max", count == 0 ? 0.0 : total.max[c]);
+      statistics.put("mean", mean);
+      statistics.put("stddev", Math.sqrt(Math.max(0, variance)));
+      result.put(NAMES[c], statistics);
+    }
+    return result;
+  }
+
+  /**
+   * The histograms and the sums counted by one thread, for the red, green and blue channels and
+   * the luma.
+   */
+  private static final class Accumulator {
+    private final int bins;
+    private final long[][] histograms;
+    private final long[] count = new long[NAMES.length];
+    private final long[] sums = new long[NAMES.length];
+    private final double[] squares = new double[NAMES.length];
+    private final int[] min = new int[NAMES.length];
+    private final int[] max = new int[NAMES.length];
+
+    /**
+     * Constructs empty counts.
+     *
+     * @param bins number of bins of a histogram
+     */
+    private Accumulator(int bins) {
+      this.bins = bins;
+      this.histograms = new long[NAMES.length][bins];
+      Arrays.fill(min, Integer.MAX_VALUE);
+      Arrays.fill(max, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Counts the values of a row, and sums them when they are binned.
+     *
+     * @param index    0 to 2 for the channels, 3 for the luma
+     * @param values   the values of the row
+     * @param width    number of values of the row
+     * @param maxValue the max value of the image
+     */
+    private void add(int index, int[] values, int width, int maxValue) {
+      long[] histogram = histograms[index];
+      if (bins > maxValue) {
+        // A bin per value, the values of an image are within its max
+        for (int j = 0; j < width; j++) {
+          histogram[values[j]]++;
+        }
+        return;
+      }
+      long sum = 0;
+      double square = 0;
+      int low = min[index];
+      int high = max[index];
+      for (int j = 0; j < width; j++) {
+        int value = Math.max(0, Math.min(values[j], maxValue));
+        histogram[(int) ((long) value * bins / ((long) maxValue + 1))]++;
+        sum += value;
+        square += (double) value * value;
+        low = Math.min(low, value);
+        high = Math.max(high, value);
+      }
+      count[index] += width;
+      sums[index] += sum;
+      squares[index] += square;
+      min[index] = low;
+      max[index] = high;
+    }
+
+    /**
+     * Takes the counts, the sums and the smallest and largest values from the histograms, when
+     * they have a bin per value.
+     */
+    private void summarize() {
+      for (int c = 0; c < NAMES.length; c++) {
+        for (int value = 0; value < bins; value++) {
+          long pixels = histograms[c][value];
+          if (pixels > 0) {
+            count[c] += pixels;
+            sums[c] += pixels * value;
+            squares[c] += (double) pixels * value * value;
+            min[c] = Math.min(min[c], value);
+            max[c] = value;
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds the counts of another thread to these counts.
+     *
+     * @param other the counts of the other thread
+     */
+    private void merge(Accumulator other) {
+      for (int c = 0; c < NAMES.length; c++) {
+        for (int b = 0; b < bins; b++) {
+          histograms[c][b] += other.histograms[c][b];
+        }
+        count[c] += other.count[c];
+        sums[c] += other.sums[c];
+        squares[c] += other.squares[c];
+        min[c] = Math.min(min[c], other.min[c]);
+        max[c] = Math.max(max[c], other.max[c]);
+      }
+    }
+  }
+}
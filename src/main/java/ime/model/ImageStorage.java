@@ -0,0 +1,96 @@
+package ime.model;
+
+import java.util.Locale;
+
+/**
+ * Represents where the pixels of the images of a session are stored.
+ * Every image knows the storage it was created in, so that the filters create their results in
+ * the same kind of storage as the image they are applied on.
+ */
+public enum ImageStorage {
+  /**
+   * Pixels are stored in primitive arrays on the Java heap. The arrays are of bytes when the max
+   * value fits in 8 bits, of shorts when it fits in 16 bits and of ints otherwise.
+   */
+  HEAP {
+    @Override
+    Image create(int height, int width, int max) {
+      if (max <= 0xFF) {
+        return new BytePlaneImage(height, width, max);
+      } else if (max <= 0xFFFF) {
+        return new ShortPlaneImage(height, width, max);
+      }
+      return new RGBImage(height, width, max);
+    }
+
+    @Override
+    Image createGrey(int height, int width, int max) {
+      return new GreyPlaneImage(height, width, max);
+    }
+  },
+
+  /**
+   * Pixels are stored on the heap in square tiles of a fixed size, so that filters reading the
+   * neighbourhood of the pixels can work tile by tile on very large images.
+   */
+  TILED {
+    @Override
+    Image create(int height, int width, int max) {
+      return new TiledImage(height, width, max, TiledImage.DEFAULT_TILE_SIZE);
+    }
+  },
+
+  /**
+   * Pixels are stored in native memory outside of the Java heap, the memory is freed as soon as
+   * the image is released. Samples take one, two or four bytes based on the max value.
+   */
+  OFF_HEAP {
+    @Override
+    Image create(int height, int width, int max) {
+      return new SegmentImage(height, width, max);
+    }
+
+    @Override
+    Image createGrey(int height, int width, int max) {
+      return new SegmentImage(height, width, max, 1);
+    }
+  };
+
+  /**
+   * Creates a blank image in this storage.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   * @return the new image with all its channels set to 0
+   */
+  abstract Image create(int height, int width, int max);
+
+  /**
+   * Creates a blank greyscale image in this storage, whose three channels always hold the same
+   * value. Storages that hold a single plane per grey image save two thirds of the memory, the
+   * others hold the three channels as for any image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   * @return the new image with all its channels set to 0
+   */
+  Image createGrey(int height, int width, int max) {
+    return create(height, width, max);
+  }
+
+  /**
+   * Gets the storage given its name, names are case-insensitive and can use '-' instead of '_'.
+   *
+   * @param name the name of the storage, for example heap or off-heap
+   * @return the storage with the given name
+   */
+  public static ImageStorage fromName(String name) {
+    try {
+      return ImageStorage.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown image storage " + name);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package ime.model;
+
+/**
+ * Abstract base of the images that show the pixels of another image without copying them, such as
+ * flipped images or images made of a single channel. A view only remaps the coordinates or the
+ * channels of its source, so it costs no memory and no pass over the pixels when created.
+ *
+ * <p>The source is expected not to change once the view is created, the operations of the model
+ * create new images instead of modifying their inputs. Writing to a view copies its pixels into
+ * its own storage first (copy on write), so the source is never modified through a view.
+ * The copy is made once even when several threads write the view at the same time, and is only
+ * seen by readers once it holds every pixel.
+ */
+abstract class ImageView extends AbstractImage {
+  protected final Image source;
+  private volatile Image copy;
+
+  /**
+   * Constructs a view of an image, the view holds the source until the view is released.
+   *
+   * @param source the image whose pixels are shown
+   * @param height height of the view
+   * @param width  width of the view
+   */
+  protected ImageView(Image source, int height, int width) {
+    super(height, width, source.getMax());
+    this.source = source;
+    source.retain();
+  }
+
+  /**
+   * Gets the red channel of a pixel as shown by the view.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the red value
+   */
+  protected abstract int viewRed(int x, int y);
+
+  /**
+   * Gets the green channel of a pixel as shown by the view.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the green value
+   */
+  protected abstract int viewGreen(int x, int y);
+
+  /**
+   * Gets the blue channel of a pixel as shown by the view.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the blue value
+   */
+  protected abstract int viewBlue(int x, int y);
+
+  /**
+   * Copies a whole row as shown by the view into the given channel buffers.
+   *
+   * @param x     the row to be read
+   * @param red   buffer that receives the red values
+   * @param green buffer that receives the green values
+   * @param blue  buffer that receives the blue values
+   */
+  protected abstract void viewRow(int x, int[] red, int[] green, int[] blue);
+
+  @Override
+  public ImageStorage getStorage() {
+    return source.getStorage();
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    checkBounds(x, y);
+    Image pixels = copy;
+    return pixels == null ? viewRed(x, y) : pixels.getRed(x, y);
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    checkBounds(x, y);
+    Image pixels = copy;
+    return pixels == null ? viewGreen(x, y) : pixels.getGreen(x, y);
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    checkBounds(x, y);
+    Image pixels = copy;
+    return pixels == null ? viewBlue(x, y) : pixels.getBlue(x, y);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    Image pixels = copy;
+    if (pixels == null) {
+      viewRow(x, red, green, blue);
+    } else {
+      pixels.getRow(x, red, green, blue);
+    }
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    modified();
+    checkBounds(x, y);
+    copyOnWrite().setRGB(x, y, red, green, blue);
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    modified();
+    checkRow(x);
+    copyOnWrite().setRow(x, red, green, blue);
+  }
+
+  /**
+   * Gets the own copy of the pixels of the view, copying them from the source on the first write.
+   * The copy is published once complete, so the threads writing the view share a single copy.
+   *
+   * @return the copy of the pixels
+   */
+  private Image copyOnWrite() {
+    Image pixels = copy;
+    if (pixels == null) {
+      synchronized (this) {
+        pixels = copy;
+        if (pixels == null) {
+          pixels = materialize();
+          copy = pixels;
+        }
+      }
+    }
+    return pixels;
+  }
+
+  @Override
+  public Image materialize() {
+    Image image = getStorage().create(height, width, max);
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int x = 0; x < height; x++) {
+      getRow(x, red, green, blue);
+      image.setRow(x, red, green, blue);
+    }
+    return image;
+  }
+
+  @Override
+  protected void free() {
+    source.release();
+    Image pixels = copy;
+    if (pixels != null) {
+      pixels.release();
+    }
+  }
+}
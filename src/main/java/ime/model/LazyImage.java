@@ -0,0 +1,201 @@
+package ime.model;
+
+import java.lang.foreign.MemorySegment;
+import java.util.function.Supplier;
+
+/**
+ * An image whose pixels are computed only when they are first needed. A lazy image is a node of a
+ * graph of operations, it records the images it is computed from and how it is computed from
+ * them. The dimensions of the result are known up front, so operations can be chained on a lazy
+ * image without computing it. Reading or writing a pixel of the image evaluates it once and
+ * remembers the result, evaluating the images it depends on if they are lazy as well.
+ */
+class LazyImage extends AbstractImage {
+  private final ImageStorage storage;
+  private final Filter filter;
+  private Image[] sources;
+  private Supplier<Image> evaluation;
+  private volatile Image value;
+
+  /**
+   * Constructs a lazy image that is the result of applying a filter on an image, filters keep the
+   * dimensions and the max value of the image they are applied on.
+   *
+   * @param source the image on which the filter has to be applied
+   * @param filter the filter to be applied
+   */
+  public LazyImage(Image source, Filter filter) {
+    this(source.getHeight(), source.getWidth(), source.getMax(), source.getStorage(), filter,
+            () -> filter.apply(source), source);
+  }
+
+  /**
+   * Constructs a lazy image computed from a set of images.
+   *
+   * @param height     height of the resulting image
+   * @param width      width of the resulting image
+   * @param max        max value of the resulting image
+   * @param storage    the storage of the resulting image
+   * @param evaluation computes the resulting image from the sources
+   * @param sources    the images the result is computed from
+   */
+  public LazyImage(int height, int width, int max, ImageStorage storage,
+                   Supplier<Image> evaluation, Image... sources) {
+    this(height, width, max, storage, null, evaluation, sources);
+  }
+
+  private LazyImage(int height, int width, int max, ImageStorage storage, Filter filter,
+                    Supplier<Image> evaluation, Image... sources) {
+    super(height, width, max);
+    this.storage = storage;
+    this.filter = filter;
+    this.evaluation = evaluation;
+    this.sources = sources;
+    // The sources are held until the image is evaluated
+    for (Image source : sources) {
+      source.retain();
+    }
+  }
+
+  /**
+   * Gets the lazy image that is the result of applying a filter on an image. When both the filter
+   * and the operation of the source are point filters and the source is yet to be evaluated, the
+   * two are fused into one filter applied on the source of the source, so that the chain costs a
+   * single pass over the pixels and the source is not computed unless it is needed by itself.
+   *
+   * @param source the image on which the filter has to be applied
+   * @param filter the filter to be applied
+   * @return the lazy image of the result
+   */
+  public static LazyImage of(Image source, Filter filter) {
+    if (source instanceof LazyImage && filter instanceof PointFilter) {
+      LazyImage fused = ((LazyImage) source).fuse((PointFilter) filter);
+      if (fused != null) {
+        return fused;
+      }
+    }
+    return new LazyImage(source, filter);
+  }
+
+  /**
+   * Fuses a point filter applied on this image with the point filter this image is computed by.
+   *
+   * @param next the filter applied on this image
+   * @return the fused lazy image, or null if this image cannot be fused
+   */
+  private synchronized LazyImage fuse(PointFilter next) {
+    if (value == null && filter instanceof PointFilter) {
+      return new LazyImage(sources[0], ((PointFilter) filter).andThen(next));
+    }
+    return null;
+  }
+
+  /**
+   * Gets whether the image has been evaluated.
+   *
+   * @return true if the pixels of the image have been computed
+   */
+  public boolean isEvaluated() {
+    return value != null;
+  }
+
+  /**
+   * Evaluates the image if it has not been evaluated yet, the sources are released once the
+   * result is computed.
+   *
+   * @return the computed image
+   */
+  public Image evaluate() {
+    Image result = value;
+    if (result == null) {
+      synchronized (this) {
+        result = value;
+        if (result == null) {
+          result = evaluation.get();
+          value = result;
+          for (Image source : sources) {
+            source.release();
+          }
+          sources = null;
+          evaluation = null;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return storage;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return evaluate().getRed(x, y);
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return evaluate().getGreen(x, y);
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return evaluate().getBlue(x, y);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    evaluate().setRGB(x, y, red, green, blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    evaluate().getRow(x, red, green, blue);
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    evaluate().setRow(x, red, green, blue);
+  }
+
+  @Override
+  ImageStatistics statistics() {
+    Image result = evaluate();
+    return result instanceof AbstractImage ? ((AbstractImage) result).statistics()
+            : ImageStatistics.of(result);
+  }
+
+  @Override
+  int planes() {
+    Image result = evaluate();
+    return result instanceof AbstractImage ? ((AbstractImage) result).planes() : 3;
+  }
+
+  @Override
+  MemorySegment plane(Channel channel) {
+    Image result = evaluate();
+    return result instanceof AbstractImage ? ((AbstractImage) result).plane(channel) : null;
+  }
+
+  @Override
+  public Image materialize() {
+    return evaluate().materialize();
+  }
+
+  @Override
+  public long contentHash() {
+    return evaluate().contentHash();
+  }
+
+  @Override
+  protected synchronized void free() {
+    if (value != null) {
+      value.release();
+    } else {
+      for (Image source : sources) {
+        source.release();
+      }
+    }
+  }
+}
@@ -25,6 +25,37 @@ public interface MIME extends IME {
    */
   void sharpen(String imageName, String resultName);
 
+  /**
+   * Method that blurs an image by averaging the square of pixels around each pixel, in a time
+   * per pixel that does not depend on the radius, and stores that in the memory.
+   *
+   * @param imageName  image using which the filter has to be applied.
+   * @param resultName name in which the resultant image has to be stored.
+   * @param radius     the number of pixels on each side of a pixel that are averaged.
+   */
+  void boxBlur(String imageName, String resultName, int radius);
+
+  /**
+   * Method that blurs an image by an approximation of a Gaussian blur made of stacked box blurs,
+   * in a time per pixel that does not depend on sigma, and stores that in the memory.
+   *
+   * @param imageName  image using which the filter has to be applied.
+   * @param resultName name in which the resultant image has to be stored.
+   * @param sigma      the standard deviation of the Gaussian in pixels.
+   */
+  void gaussianBlur(String imageName, String resultName, double sigma);
+
+  /**
+   * Method that applies a given kernel to an image and stores that in the memory. Large kernels
+   * are applied through the fast Fourier transform.
+   *
+   * @param imageName  image using which the filter has to be applied.
+   * @param resultName name in which the resultant image has to be stored.
+   * @param kernel     the square kernel of odd size.
+   * @param edges      the values of the pixels under the kernel beyond the edges of the image.
+   */
+  void convolve(String imageName, String resultName, double[][] kernel, EdgeMode edges);
+
   /**
    * Applies Sepia color transformation on an image and stores the resultant image in the memory.
    *
@@ -40,4 +71,14 @@ public interface MIME extends IME {
    * @param resultName name in which the resultant image has to be stored.
    */
   void dither(String imageName, String resultName);
+
+  /**
+   * Method that operates on an Image and creates an image dithered in the given mode and stores
+   * that in the memory.
+   *
+   * @param imageName  image using which the operation has to be performed.
+   * @param resultName name in which the resultant image has to be stored.
+   * @param mode       the way the image is dithered.
+   */
+  void dither(String imageName, String resultName, DitherMode mode);
 }
@@ -1,7 +1,5 @@
 package ime.model;
 
-import java.util.function.Function;
-
 /**
  * Implementation of MIME.
  */
@@ -14,6 +12,39 @@ public class MIMEImp extends IMEImp implements MIME {
     super();
   }
 
+  /**
+   * Constructs a MIME Implementation whose loaded images are held in the given storage.
+   *
+   * @param storage the storage in which the pixels of the loaded images are held
+   */
+  public MIMEImp(ImageStorage storage) {
+    super(storage);
+  }
+
+  /**
+   * Constructs a MIME Implementation whose loaded images are held in the given storage and whose
+   * images are kept in the given registry.
+   *
+   * @param storage  the storage in which the pixels of the loaded images are held
+   * @param registry the registry that keeps the images of the session
+   */
+  public MIMEImp(ImageStorage storage, ImageRegistry registry) {
+    super(storage, registry);
+  }
+
+  /**
+   * Constructs a MIME Implementation whose images are persisted in the given store, the images
+   * of the store are mapped back into the session.
+   *
+   * @param storage    the storage in which the pixels of derived images are held
+   * @param registry   the registry that keeps the images of the session
+   * @param imageStore the store in which the images are persisted, or null to keep them only for
+   *                   the run
+   */
+  public MIMEImp(ImageStorage storage, ImageRegistry registry, MappedImageStore imageStore) {
+    super(storage, registry, imageStore);
+  }
+
   /**
    * Method to return a matrix filter given the matrix.
    *
@@ -34,60 +65,6 @@ public class MIMEImp extends IMEImp implements MIME {
     return new ColorTransformer(matrix);
   }
 
-  /**
-   * Method that applies the greyscale on an image given the greyscale function (the one that
-   * determines the type of greyscale needed).
-   *
-   * @param image             the image on which the greyscale operation has to be done.
-   * @param result            the name in which resulting image has to be stored.
-   * @param greyscaleFunction the function through which value for the pixels to be made grey
-   *                          gets decided.
-   */
-  private void applyGreyscale(String image, String result, Function<RGBPixel,
-          RGBPixel> greyscaleFunction) {
-    Image baseImage = getImage(image);
-    Filter greyscaleFilter =
-            new PixelFilter(base -> i -> j -> greyscaleFunction.apply((RGBPixel)
-                    base.getPixel(i, j)));
-    images.put(result, baseImage.applyFilter(greyscaleFilter));
-  }
-
-  @Override
-  public void redGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getRed(), pixel.getRed(),
-            pixel.getRed(), pixel.getMax()));
-  }
-
-  @Override
-  public void greenGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getGreen(), pixel.getGreen(),
-            pixel.getGreen(), pixel.getMax()));
-  }
-
-  @Override
-  public void blueGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getBlue(), pixel.getBlue(),
-            pixel.getBlue(), pixel.getMax()));
-  }
-
-  @Override
-  public void valueGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getValue(), pixel.getValue(),
-            pixel.getValue(), pixel.getMax()));
-  }
-
-  @Override
-  public void lumaGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getLuma(), pixel.getLuma(),
-            pixel.getLuma(), pixel.getMax()));
-  }
-
-  @Override
-  public void intensityGreyscale(String image, String result) {
-    applyGreyscale(image, result, pixel -> new RGBPixel(pixel.getIntensity(), pixel.getIntensity(),
-            pixel.getIntensity(), pixel.getIntensity()));
-  }
-
   /**
    * A method that applies the given filter to the given image and stores the image.
    *
@@ -96,9 +73,8 @@ public class MIMEImp extends IMEImp implements MIME {
    * @param filterMatrix the kernel of the filter matrix.
    */
   private void applyFilter(String imageName, String resultName, double[][] filterMatrix) {
-    Image source = getImage(imageName);
-    Image result = source.applyFilter(getMatrixFilter(filterMatrix));
-    images.put(resultName, result);
+    Filter filter = getMatrixFilter(filterMatrix);
+    derive(imageName, resultName, source -> LazyImage.of(source, filter));
   }
 
   @Override
@@ -110,6 +86,24 @@ public class MIMEImp extends IMEImp implements MIME {
     applyFilter(imageName, resultName, gaussianFilterMatrix);
   }
 
+  @Override
+  public void boxBlur(String imageName, String resultName, int radius) {
+    Filter filter = new BoxBlurFilter(EdgeMode.CLAMP, radius);
+    derive(imageName, resultName, source -> LazyImage.of(source, filter));
+  }
+
+  @Override
+  public void gaussianBlur(String imageName, String resultName, double sigma) {
+    Filter filter = BoxBlurFilter.gaussian(sigma, EdgeMode.CLAMP);
+    derive(imageName, resultName, source -> LazyImage.of(source, filter));
+  }
+
+  @Override
+  public void convolve(String imageName, String resultName, double[][] kernel, EdgeMode edges) {
+    Filter filter = new MatrixFilter(kernel, edges);
+    derive(imageName, resultName, source -> LazyImage.of(source, filter));
+  }
+
   @Override
   public void sharpen(String imageName, String resultName) {
     double[][] sharperMatrix = {
@@ -130,9 +124,8 @@ public class MIMEImp extends IMEImp implements MIME {
    */
   private void applyColorTransformation(String imageName, String resultName,
                                         double[][] ctMatrix) {
-    Image source = getImage(imageName);
-    Image result = source.applyFilter(getColorTransformer(ctMatrix));
-    images.put(resultName, result);
+    Filter filter = getColorTransformer(ctMatrix);
+    derive(imageName, resultName, source -> LazyImage.of(source, filter));
   }
 
   @Override
@@ -146,56 +139,12 @@ public class MIMEImp extends IMEImp implements MIME {
 
   @Override
   public void dither(String imageName, String resultName) {
-    // greyscale it first
-    this.lumaGreyscale(imageName, resultName);
-    Image result = getImage(resultName);
-
-    int height = result.getHeight();
-    int width = result.getWidth();
-    int max = result.getMax();
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-
-        int oldColor = result.getPixel(i, j).getRed();
-        int newColor = oldColor <= 127 ? 0 : 255;
-        int error = oldColor - newColor;
-
-        result.setPixel(i, j, new RGBPixel(newColor, newColor, newColor, max));
-
-        double right = (7.0 / 16) * error;
-        double nextLeft = (3.0 / 16) * error;
-        double below = (5.0 / 16) * error;
-        double nextRight = (1.0 / 16) * error;
-
-        if (j + 1 < width) {
-          int resultantValue = (int) Math.round(result.getPixel(i, j + 1).getRed() + right);
-          result.setPixel(i, j + 1, new RGBPixel(resultantValue, resultantValue, resultantValue,
-                  max));
-        }
-
-        if (i + 1 < height && j - 1 >= 0) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j - 1).getRed() + nextLeft);
-          result.setPixel(i + 1, j - 1, new RGBPixel(resultantValue, resultantValue,
-                  resultantValue, max));
-        }
-
-        if (i + 1 < height) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j).getRed() + below);
-          result.setPixel(i + 1, j, new RGBPixel(resultantValue, resultantValue, resultantValue,
-                  max));
-        }
-
-        if (i + 1 < height && j + 1 < width) {
-          int resultantValue = (int) Math.round(result.getPixel(i + 1, j + 1).getRed() + nextRight);
-          result.setPixel(i + 1, j + 1, new RGBPixel(resultantValue, resultantValue,
-                  resultantValue, max));
-        }
-      }
-    }
-
-    images.put(resultName, result);
+    dither(imageName, resultName, DitherMode.FLOYD_STEINBERG);
   }
 
-
+  @Override
+  public void dither(String imageName, String resultName, DitherMode mode) {
+    Filter dither = mode.filter(getLumaFilter());
+    derive(imageName, resultName, source -> LazyImage.of(source, dither));
+  }
 }
@@ -0,0 +1,106 @@
+package ime.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Implementation of Image whose channel planes are held in a file mapped in memory.
+ * The file holds the raw planes in the layout of the off-heap images, so mapping it back gives
+ * the image without decoding it. The pages of the file are loaded and written back by the
+ * operating system, the mapping is released once every holder has released the image.
+ */
+class MappedImage extends SegmentImage {
+  private final Path file;
+  private final ImageStorage storage;
+  private final Runnable onRelease;
+
+  /**
+   * Constructs an image over a mapped file.
+   *
+   * @param height    height of the image, i.e., rows of the image matrix
+   * @param width     width of the image, i.e., columns of the image matrix
+   * @param max       maximum value of a channel of a pixel in the image
+   * @param planes    1 for a greyscale image, 3 otherwise
+   * @param file      the file holding the channel planes
+   * @param arena     the arena that owns the mapping
+   * @param storage   the storage in which images derived from this image are created
+   * @param onRelease called once the mapping is released
+   * @throws IOException if the file could not be mapped
+   */
+  private MappedImage(int height, int width, int max, int planes, Path file, Arena arena,
+                      ImageStorage storage, Runnable onRelease) throws IOException {
+    super(height, width, max, planes, arena,
+            map(file, byteSize(height, width, max, planes), arena));
+    this.file = file;
+    this.storage = storage;
+    this.onRelease = onRelease;
+  }
+
+  /**
+   * Maps a file holding the channel planes of an image, the file is created or extended to the
+   * given size, new bytes of the file are zero.
+   *
+   * @param file  the file to be mapped
+   * @param size  the size of the planes in bytes
+   * @param arena the arena that owns the mapping
+   * @return the mapped segment
+   * @throws IOException if the file could not be mapped
+   */
+  private static MemorySegment map(Path file, long size, Arena arena) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+    }
+  }
+
+  /**
+   * Maps the given file as an image, the file is created if it does not exist.
+   *
+   * @param height    height of the image, i.e., rows of the image matrix
+   * @param width     width of the image, i.e., columns of the image matrix
+   * @param max       maximum value of a channel of a pixel in the image
+   * @param planes    1 for a greyscale image, 3 otherwise
+   * @param file      the file holding the channel planes
+   * @param storage   the storage in which images derived from this image are created
+   * @param onRelease called once the mapping is released
+   * @return the mapped image
+   */
+  static MappedImage open(int height, int width, int max, int planes, Path file,
+                          ImageStorage storage, Runnable onRelease) {
+    if (height < 0 || width < 0 || max < 0) {
+      throw new IllegalArgumentException("Please provide valid dimensions for the image");
+    }
+    Arena arena = Arena.ofShared();
+    try {
+      return new MappedImage(height, width, max, planes, file, arena, storage, onRelease);
+    } catch (IOException e) {
+      arena.close();
+      throw new UncheckedIOException("Could not map the image file " + file, e);
+    }
+  }
+
+  /**
+   * Gets the file holding the channel planes of the image.
+   *
+   * @return the file of the image
+   */
+  Path getFile() {
+    return file;
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return storage;
+  }
+
+  @Override
+  protected void free() {
+    super.free();
+    onRelease.run();
+  }
+}
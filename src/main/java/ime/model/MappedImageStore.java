@@ -0,0 +1,310 @@
+package ime.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Keeps the images of a session in files mapped in memory so that they survive a restart.
+ * Each image is a file holding its raw channel planes, a single plane for a greyscale image, a
+ * small index file maps the name of every image to its file, its dimensions and its planes.
+ * When the store is opened the files of the index are mapped back as they are, without reading
+ * or decoding them, the operating system loads their pages the first time they are used, so
+ * opening the store takes the same time however large the images are.
+ * A file is deleted once its image is neither in the index nor used by the session.
+ */
+public class MappedImageStore {
+  private static final String INDEX = "index.properties";
+  private static final String EXTENSION = ".planes";
+
+  private final Path directory;
+  private final Properties index;
+  private final Set<String> open;
+  private long nextFile;
+
+  /**
+   * Opens the store in the given directory, the directory is created if it does not exist.
+   * Files of the directory that are not in the index are left from images that were dropped and
+   * are deleted.
+   *
+   * @param directory the directory of the store
+   */
+  public MappedImageStore(Path directory) {
+    this.directory = directory;
+    this.index = new Properties();
+    this.open = new HashSet<>();
+    try {
+      Files.createDirectories(directory);
+      Path indexFile = directory.resolve(INDEX);
+      if (Files.exists(indexFile)) {
+        try (InputStream in = Files.newInputStream(indexFile)) {
+          index.load(in);
+        }
+      }
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+        for (Path file : files) {
+          String fileName = file.getFileName().toString();
+          nextFile = Math.max(nextFile, fileNumber(fileName) + 1);
+          if (!isIndexed(fileName)) {
+            Files.delete(file);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open the image store " + directory, e);
+    }
+  }
+
+  /**
+   * Maps back every image of the index. The files are mapped, not read, their pages are loaded
+   * when the images are used. Entries whose file is missing or of the wrong size are dropped.
+   *
+   * @param storage the storage in which images derived from the stored images are created
+   * @return the stored images by name
+   */
+  synchronized Map<String, Image> restore(ImageStorage storage) {
+    Map<String, Image> images = new LinkedHashMap<>();
+    for (String name : index.stringPropertyNames()) {
+      String[] entry = index.getProperty(name).split(" ");
+      Path file = directory.resolve(entry[0]);
+      int height = Integer.parseInt(entry[1]);
+      int width = Integer.parseInt(entry[2]);
+      int max = Integer.parseInt(entry[3]);
+      // Entries written before the planes were recorded hold three planes
+      int planes = entry.length > 4 ? Integer.parseInt(entry[4]) : 3;
+      try {
+        if ((planes != 1 && planes != 3)
+                || Files.size(file) != SegmentImage.byteSize(height, width, max, planes)) {
+          index.remove(name);
+          continue;
+        }
+      } catch (IOException e) {
+        index.remove(name);
+        continue;
+      }
+      images.put(name, open(height, width, max, planes, file, storage));
+    }
+    writeIndex();
+    return images;
+  }
+
+  /**
+   * Creates a blank image in a new file of the store. The image is not in the index until it is
+   * put in the store under a name.
+   *
+   * @param height  height of the image, i.e., rows of the image matrix
+   * @param width   width of the image, i.e., columns of the image matrix
+   * @param max     maximum value of a channel of a pixel in the image
+   * @param storage the storage in which images derived from the image are created
+   * @return the new image with all its channels set to 0
+   */
+  synchronized Image create(int height, int width, int max, ImageStorage storage) {
+    return create(height, width, max, 3, storage);
+  }
+
+  /**
+   * Creates a blank image of one or three planes in a new file of the store.
+   *
+   * @param height  height of the image, i.e., rows of the image matrix
+   * @param width   width of the image, i.e., columns of the image matrix
+   * @param max     maximum value of a channel of a pixel in the image
+   * @param planes  1 for a greyscale image, 3 otherwise
+   * @param storage the storage in which images derived from the image are created
+   * @return the new image with all its channels set to 0
+   */
+  private Image create(int height, int width, int max, int planes, ImageStorage storage) {
+    Path file = directory.resolve("image-" + (nextFile++) + EXTENSION);
+    return open(height, width, max, planes, file, storage);
+  }
+
+  /**
+   * Records the image stored in the session under the given name. Images held in files of the
+   * store are added to the index, any other image is not persisted and the name is dropped from
+   * the index.
+   *
+   * @param name  name of the image
+   * @param image the image stored under the name
+   */
+  synchronized void put(String name, Image image) {
+    if (!(image instanceof MappedImage)
+            || !directory.equals(((MappedImage) image).getFile().getParent())) {
+      remove(name);
+      return;
+    }
+    String fileName = ((MappedImage) image).getFile().getFileName().toString();
+    Object previous = index.setProperty(name, fileName + " " + image.getHeight() + " "
+            + image.getWidth() + " " + image.getMax() + " " + ImageRegistry.planesOf(image));
+    writeIndex();
+    drop(previous);
+  }
+
+  /**
+   * Copies an image into a new file of the store and records it under the given name, a
+   * greyscale image is copied as its single plane.
+   *
+   * @param name    name of the image
+   * @param image   the image to be persisted
+   * @param storage the storage in which images derived from the image are created
+   * @return the persisted image
+   */
+  synchronized Image persist(String name, Image image, ImageStorage storage) {
+    int width = image.getWidth();
+    int planes = ImageRegistry.planesOf(image);
+    Image persisted = create(image.getHeight(), width, image.getMax(), planes, storage);
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, red, green, blue);
+      if (planes == 1) {
+        persisted.setRow(i, red, red, red);
+      } else {
+        persisted.setRow(i, red, green, blue);
+      }
+    }
+    put(name, persisted);
+    return persisted;
+  }
+
+  /**
+   * Removes the image stored under the given name from the index.
+   *
+   * @param name name of the image
+   */
+  synchronized void remove(String name) {
+    Object previous = index.remove(name);
+    if (previous != null) {
+      writeIndex();
+      drop(previous);
+    }
+  }
+
+  /**
+   * Checks whether an image is recorded in the index under the given name.
+   *
+   * @param name name of the image
+   * @return true if the image is in the index
+   */
+  synchronized boolean contains(String name) {
+    return index.containsKey(name);
+  }
+
+  /**
+   * Maps a file of the store as an image and tracks it until it is released.
+   *
+   * @param height  height of the image
+   * @param width   width of the image
+   * @param max     maximum value of a channel of a pixel in the image
+   * @param planes  1 for a greyscale image, 3 otherwise
+   * @param file    the file holding the channel planes
+   * @param storage the storage in which images derived from the image are created
+   * @return the mapped image
+   */
+  private Image open(int height, int width, int max, int planes, Path file,
+                     ImageStorage storage) {
+    String fileName = file.getFileName().toString();
+    MappedImage image = MappedImage.open(height, width, max, planes, file, storage,
+            () -> released(fileName));
+    open.add(fileName);
+    return image;
+  }
+
+  /**
+   * Called when the mapping of a file is released, the file is deleted if it is not in the index.
+   *
+   * @param fileName the name of the file
+   */
+  private synchronized void released(String fileName) {
+    open.remove(fileName);
+    if (!isIndexed(fileName)) {
+      delete(fileName);
+    }
+  }
+
+  /**
+   * Deletes the file of an entry dropped from the index if it is no longer used.
+   *
+   * @param entry the entry dropped from the index, may be null
+   */
+  private void drop(Object entry) {
+    if (entry == null) {
+      return;
+    }
+    String fileName = ((String) entry).split(" ")[0];
+    if (!open.contains(fileName) && !isIndexed(fileName)) {
+      delete(fileName);
+    }
+  }
+
+  /**
+   * Checks whether a file is referred to by an entry of the index.
+   *
+   * @param fileName the name of the file
+   * @return true if an entry of the index refers to the file
+   */
+  private boolean isIndexed(String fileName) {
+    for (Object entry : index.values()) {
+      if (((String) entry).split(" ")[0].equals(fileName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of a file of the store from its name.
+   *
+   * @param fileName the name of the file
+   * @return the number of the file, or -1 if the name is not of a file of the store
+   */
+  private static long fileNumber(String fileName) {
+    try {
+      return Long.parseLong(fileName.substring("image-".length(),
+              fileName.length() - EXTENSION.length()));
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Deletes a file of the store, a file that cannot be deleted now is deleted when the store is
+   * opened next.
+   *
+   * @param fileName the name of the file
+   */
+  private void delete(String fileName) {
+    try {
+      Files.deleteIfExists(directory.resolve(fileName));
+    } catch (IOException e) {
+      // The file is not in the index, it is cleaned up when the store is opened next
+    }
+  }
+
+  /**
+   * Writes the index to a temporary file and moves it over the index, so that the index on disk
+   * is always complete.
+   */
+  private void writeIndex() {
+    Path indexFile = directory.resolve(INDEX);
+    Path temporary = directory.resolve(INDEX + ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        index.store(out, "name=file height width max planes");
+      }
+      Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write the index of the image store", e);
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package ime.model;
 
+import ime.model.FilterBackend.Weights;
+import java.util.Arrays;
+
 /**
  * An implementation of Filter that applies filter on images by using a matrix that operates on
  * each pixel using its values as well as the computed values of its surrounding pixels using the
@@ -9,23 +12,159 @@ package ime.model;
  * the image when its apply method is called on using the kernel. Will return a filtered image.
  */
 public class MatrixFilter implements Filter {
+  // Relative difference up to which a kernel is taken as the product of a column and a row
+  private static final double SEPARABLE_TOLERANCE = 1e-12;
+  /**
+   * Size of the largest kernel summed directly, larger kernels that are not separable are applied
+   * through the fast Fourier transform.
+   */
+  public static final int FFT_THRESHOLD = 19;
+  /**
+   * Size of the largest kernel, the blocks transformed for a kernel are four times its size on a
+   * side, 512 x 512 for the largest one.
+   */
+  public static final int MAX_SIZE = 127;
   private final double[][] kernel;
   private final int size;
+  // The weights handed to the backends, built once for every row the filter is applied on
+  private final Weights kernelWeights;
+  // Factors of a separable kernel, kernel[i][j] == column[i] * row[j], null otherwise
+  private final Weights columnWeights;
+  private final Weights rowWeights;
+  private final EdgeMode edges;
 
   /**
-   * Creates a MatrixFilter given the kernel.
+   * Creates a MatrixFilter given the kernel. Kernels that are the product of a column and a row,
+   * such as the gaussian blur, are applied as a horizontal pass followed by a vertical pass.
    *
    * @param kernel a 2D matrix representing the kernel that is used for filtering.
    */
   public MatrixFilter(double[][] kernel) {
+    this(kernel, EdgeMode.ZERO);
+  }
+
+  /**
+   * Creates a MatrixFilter given the kernel and how the pixels beyond the edges of the image are
+   * treated.
+   *
+   * @param kernel a 2D matrix representing the kernel that is used for filtering.
+   * @param edges  the values of the pixels under the kernel beyond the edges of the image
+   */
+  public MatrixFilter(double[][] kernel, EdgeMode edges) {
+    this.edges = edges;
+    checkSize(kernel.length);
     if (validateKernel(kernel)) {
       this.kernel = kernel;
       this.size = kernel.length;
+      double[][] factors = separate(kernel);
+      this.kernelWeights = new Weights(kernel);
+      this.columnWeights = factors == null ? null : new Weights(factors[0]);
+      this.rowWeights = factors == null ? null : new Weights(factors[1]);
     } else {
       throw new IllegalArgumentException("Please provide valid filter of Odd dimension");
     }
   }
 
+  /**
+   * Creates a MatrixFilter whose kernel is the product of the given column and row, the kernel
+   * is applied as a horizontal pass with the row followed by a vertical pass with the column.
+   *
+   * @param column the vertical factors of the kernel, of odd length
+   * @param row    the horizontal factors of the kernel, of the same length as the column
+   */
+  public MatrixFilter(double[] column, double[] row) {
+    this(column, row, EdgeMode.ZERO);
+  }
+
+  /**
+   * Creates a MatrixFilter whose kernel is the product of the given column and row, with the
+   * given treatment of the pixels beyond the edges of the image.
+   *
+   * @param column the vertical factors of the kernel, of odd length
+   * @param row    the horizontal factors of the kernel, of the same length as the column
+   * @param edges  the values of the pixels under the kernel beyond the edges of the image
+   */
+  public MatrixFilter(double[] column, double[] row, EdgeMode edges) {
+    this.edges = edges;
+    checkSize(column.length);
+    if (column.length % 2 == 0 || column.length != row.length) {
+      throw new IllegalArgumentException("Please provide valid filter of Odd dimension");
+    }
+    this.size = column.length;
+    this.kernel = new double[size][size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        kernel[i][j] = column[i] * row[j];
+      }
+    }
+    this.kernelWeights = new Weights(kernel);
+    this.columnWeights = new Weights(column.clone());
+    this.rowWeights = new Weights(row.clone());
+  }
+
+  /**
+   * Splits a kernel into a column and a row whose product is the kernel, up to the rounding of
+   * its entries. The first row of the result is the column and the second the row.
+   *
+   * @param kernel the kernel to be split
+   * @return the column and the row, or null if the kernel is not such a product
+   */
+  private static double[][] separate(double[][] kernel) {
+    int length = kernel.length;
+    int pivotRow = 0;
+    int pivotColumn = 0;
+    for (int i = 0; i < length; i++) {
+      for (int j = 0; j < length; j++) {
+        if (Math.abs(kernel[i][j]) > Math.abs(kernel[pivotRow][pivotColumn])) {
+          pivotRow = i;
+          pivotColumn = j;
+        }
+      }
+    }
+    double pivot = kernel[pivotRow][pivotColumn];
+    if (pivot == 0 || Double.isNaN(pivot) || Double.isInfinite(pivot)) {
+      return null;
+    }
+    double[] column = new double[length];
+    double[] row = kernel[pivotRow].clone();
+    for (int i = 0; i < length; i++) {
+      column[i] = kernel[i][pivotColumn] / pivot;
+    }
+    // Kernels computed as a product are only a product up to the rounding of their entries
+    double tolerance = Math.abs(pivot) * SEPARABLE_TOLERANCE;
+    for (int i = 0; i < length; i++) {
+      for (int j = 0; j < length; j++) {
+        if (!(Math.abs(column[i] * row[j] - kernel[i][j]) <= tolerance)) {
+          return null;
+        }
+      }
+    }
+    return new double[][]{column, row};
+  }
+
+  /**
+   * Checks whether the kernel is applied as two one dimensional passes.
+   *
+   * @return true if the kernel is separable
+   */
+  public boolean isSeparable() {
+    return columnWeights != null;
+  }
+
+  /**
+   * Validates that a kernel is not larger than MAX_SIZE, larger kernels would cost blocks of
+   * transforms too large to hold.
+   *
+   * @param size the number of rows of the kernel
+   * @throws IllegalArgumentException if the kernel is too large
+   */
+  private static void checkSize(int size) {
+    if (size > MAX_SIZE) {
+      throw new IllegalArgumentException("Kernels are at most " + MAX_SIZE
+              + " rows and columns");
+    }
+  }
+
   /**
    * To validate the filter.
    * Kernels should be of odd dimension for the filter operation.
@@ -46,37 +185,336 @@ public class MatrixFilter implements Filter {
     return false;
   }
 
+  /**
+   * Checks whether the kernel is applied through the fast Fourier transform, which is the case
+   * of kernels larger than FFT_THRESHOLD that are not separable.
+   *
+   * @return true if the kernel is applied through the transform
+   */
+  public boolean usesFft() {
+    return !isSeparable() && size > FFT_THRESHOLD;
+  }
+
   @Override
   public Image apply(Image inputImage) {
-    Image newImage = new RGBImage(inputImage.getHeight(), inputImage.getWidth(),
-            inputImage.getMax());
+    if (usesFft()) {
+      Image newImage = inputImage.getStorage().create(inputImage.getHeight(),
+              inputImage.getWidth(), inputImage.getMax());
+      new FftConvolution(kernel, edges).apply(inputImage, newImage);
+      return newImage;
+    }
+    if (inputImage instanceof TiledImage) {
+      return applyTiled((TiledImage) inputImage);
+    }
+    Image newImage = inputImage.getStorage().create(inputImage.getHeight(),
+            inputImage.getWidth(), inputImage.getMax());
+    // Bands of rows are filtered in parallel, each band reads the rows under the kernel itself
+    RowBands.shared().forEach(inputImage.getHeight(), inputImage.getWidth(), (from, to) -> {
+      if (isSeparable()) {
+        applySeparable(FilterBackend.shared(), inputImage, newImage, from, to);
+      } else {
+        applyDirect(inputImage, newImage, from, to);
+      }
+    });
+    return newImage;
+  }
 
-    // Iterate over each pixel in the image
-    for (int x = 0; x < newImage.getHeight(); x++) {
-      for (int y = 0; y < newImage.getWidth(); y++) {
-        // Iterate over each element in the kernel
-        double sumR = 0;
-        double sumG = 0;
-        double sumB = 0;
+  /**
+   * Applies the kernel to a band of rows of the image, summing the products of the kernel and of
+   * the pixels under it. The rows under the kernel are loaded with the pixels beyond the edges
+   * on both sides, and rows beyond the edges are given by the edge mode, so the sums over the
+   * interior and over the borders run the same loop without any bounds checks.
+   *
+   * @param inputImage the image on which the filter has to be applied
+   * @param newImage   the image receiving the filtered rows
+   * @param from       first row of the band
+   * @param to         row after the last row of the band
+   */
+  private void applyDirect(Image inputImage, Image newImage, int from, int to) {
+    FilterBackend<?> backend = FilterBackend.shared();
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int half = size / 2;
+    int padded = width + 2 * half;
 
-        for (int i = 0; i < size; i++) {
-          for (int j = 0; j < size; j++) {
-            int px = x - size / 2 + i;
-            int py = y - size / 2 + j;
-
-            // Check if the current kernel element overlaps with a pixel in the image and compute
-            // it for channels
-            if (px >= 0 && px < newImage.getHeight() && py >= 0 && py < newImage.getWidth()) {
-              sumR += kernel[i][j] * inputImage.getPixel(px, py).getRed();
-              sumG += kernel[i][j] * inputImage.getPixel(px, py).getGreen();
-              sumB += kernel[i][j] * inputImage.getPixel(px, py).getBlue();
-            }
+    // Rows of the input that are under the kernel, kept in a ring indexed by row % size
+    int[][] rowsR = new int[size][padded];
+    int[][] rowsG = new int[size][padded];
+    int[][] rowsB = new int[size][padded];
+    int[] loadedRows = new int[size];
+    Arrays.fill(loadedRows, -1);
+    // Rows of the input standing for rows beyond the edges, by row of the kernel
+    int[][] edgeR = new int[size][padded];
+    int[][] edgeG = new int[size][padded];
+    int[][] edgeB = new int[size][padded];
+    int[] zeros = new int[padded];
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+
+    int[][] underR = new int[size][];
+    int[][] underG = new int[size][];
+    int[][] underB = new int[size][];
+    int[] offsets = new int[size];
+
+    int[] outR = new int[width];
+    int[] outG = new int[width];
+    int[] outB = new int[width];
+
+    // Iterate over each row of the band
+    for (int x = from; x < to; x++) {
+      for (int i = 0; i < size; i++) {
+        int px = x - half + i;
+        int mapped = edges.map(px, height);
+        if (mapped < 0) {
+          underR[i] = zeros;
+          underG[i] = zeros;
+          underB[i] = zeros;
+        } else if (mapped == px) {
+          int slot = px % size;
+          if (loadedRows[slot] != px) {
+            inputImage.getRow(px, red, green, blue);
+            pad(red, rowsR[slot], width, half);
+            pad(green, rowsG[slot], width, half);
+            pad(blue, rowsB[slot], width, half);
+            loadedRows[slot] = px;
           }
+          underR[i] = rowsR[slot];
+          underG[i] = rowsG[slot];
+          underB[i] = rowsB[slot];
+        } else {
+          inputImage.getRow(mapped, red, green, blue);
+          pad(red, edgeR[i], width, half);
+          pad(green, edgeG[i], width, half);
+          pad(blue, edgeB[i], width, half);
+          underR[i] = edgeR[i];
+          underG[i] = edgeG[i];
+          underB[i] = edgeB[i];
+        }
+      }
+
+      backend.convolve(kernelWeights, underR, offsets, width, outR);
+      backend.convolve(kernelWeights, underG, offsets, width, outG);
+      backend.convolve(kernelWeights, underB, offsets, width, outB);
+      newImage.setRow(x, outR, outG, outB);
+    }
+  }
+
+  /**
+   * Applies a separable kernel to a band of rows as a horizontal pass with the row followed by a
+   * vertical pass with the column, which costs 2 * size products per pixel instead of
+   * size * size. Each input row is filtered horizontally once when it comes under the kernel and
+   * kept in a ring of rows, the vertical pass then sums the filtered rows under the kernel. The
+   * pixels and rows beyond the edges are given by the edge mode like in the direct sums.
+   *
+   * @param backend    the backend doing the arithmetic
+   * @param inputImage the image on which the filter has to be applied
+   * @param newImage   the image receiving the filtered rows
+   * @param from       first row of the band
+   * @param to         row after the last row of the band
+   * @param <R>        the type of the horizontally filtered rows of the backend
+   */
+  private <R> void applySeparable(FilterBackend<R> backend, Image inputImage, Image newImage,
+                                  int from, int to) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int half = size / 2;
+
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    // The row being filtered horizontally, with the pixels beyond the edges on both sides
+    int[] padded = new int[width + 2 * half];
+    // Horizontally filtered rows under the kernel, kept in a ring indexed by row % size
+    R[] rowsR = backend.newRows(size, width);
+    R[] rowsG = backend.newRows(size, width);
+    R[] rowsB = backend.newRows(size, width);
+    // Filtered rows standing for rows beyond the edges, by entry of the column
+    R[] edgeR = backend.newRows(size, width);
+    R[] edgeG = backend.newRows(size, width);
+    R[] edgeB = backend.newRows(size, width);
+    R zeros = backend.newRows(1, width)[0];
+    R[] underR = backend.newRows(size, 0);
+    R[] underG = backend.newRows(size, 0);
+    R[] underB = backend.newRows(size, 0);
+    int[] offsets = new int[size];
+    int[] outR = new int[width];
+    int[] outG = new int[width];
+    int[] outB = new int[width];
+
+    for (int x = from; x < to; x++) {
+      // Only the row entering the kernel is new, the others were filtered for the previous rows
+      int entering = x == from ? Math.max(0, x - half) : x + half;
+      for (int px = entering; px <= x + half && px < height; px++) {
+        inputImage.getRow(px, red, green, blue);
+        filterRow(backend, red, padded, rowsR[px % size], width, half);
+        filterRow(backend, green, padded, rowsG[px % size], width, half);
+        filterRow(backend, blue, padded, rowsB[px % size], width, half);
+      }
+
+      for (int i = 0; i < size; i++) {
+        int px = x - half + i;
+        int mapped = edges.map(px, height);
+        if (mapped < 0) {
+          underR[i] = zeros;
+          underG[i] = zeros;
+          underB[i] = zeros;
+        } else if (mapped == px) {
+          underR[i] = rowsR[px % size];
+          underG[i] = rowsG[px % size];
+          underB[i] = rowsB[px % size];
+        } else {
+          inputImage.getRow(mapped, red, green, blue);
+          filterRow(backend, red, padded, edgeR[i], width, half);
+          filterRow(backend, green, padded, edgeG[i], width, half);
+          filterRow(backend, blue, padded, edgeB[i], width, half);
+          underR[i] = edgeR[i];
+          underG[i] = edgeG[i];
+          underB[i] = edgeB[i];
         }
-        newImage.setPixel(x, y, new RGBPixel((int) Math.round(sumR), (int) Math.round(sumG),
-                (int) Math.round(sumB), inputImage.getMax()));
       }
+      backend.combine(columnWeights, underR, offsets, width, outR);
+      backend.combine(columnWeights, underG, offsets, width, outG);
+      backend.combine(columnWeights, underB, offsets, width, outB);
+      newImage.setRow(x, outR, outG, outB);
+    }
+  }
+
+  /**
+   * Filters a row of a channel with the row of a separable kernel, the pixels beyond the edges
+   * are given by the edge mode.
+   *
+   * @param backend  the backend doing the arithmetic
+   * @param channel  the values of the row
+   * @param padded   buffer of the row with half the kernel on both sides
+   * @param filtered buffer that receives the filtered values
+   * @param width    the width of the row
+   * @param half     half the size of the kernel
+   * @param <R>      the type of the horizontally filtered rows of the backend
+   */
+  private <R> void filterRow(FilterBackend<R> backend, int[] channel, int[] padded, R filtered,
+                             int width, int half) {
+    pad(channel, padded, width, half);
+    backend.filterRow(rowWeights, padded, 0, width, filtered, 0);
+  }
+
+  /**
+   * Copies a row of a channel into a buffer with half the kernel on both sides, filled with the
+   * pixels beyond the edges given by the edge mode. This is the only place the borders of a row
+   * are handled, the sums then read the buffer without bounds checks.
+   *
+   * @param channel the values of the row
+   * @param padded  buffer of width + 2 * half values
+   * @param width   the width of the row
+   * @param half    half the size of the kernel
+   */
+  private void pad(int[] channel, int[] padded, int width, int half) {
+    System.arraycopy(channel, 0, padded, half, width);
+    for (int k = 1; k <= half; k++) {
+      int left = edges.map(-k, width);
+      int right = edges.map(width - 1 + k, width);
+      padded[half - k] = left < 0 ? 0 : channel[left];
+      padded[half + width - 1 + k] = right < 0 ? 0 : channel[right];
     }
+  }
+
+  /**
+   * Applies the kernel tile by tile, each tile is loaded with a halo of half the kernel so that
+   * the whole neighbourhood of its pixels is in the buffers. The halo outside of the image is
+   * filled by the edge mode.
+   * Bands of rows of tiles are filtered in parallel, every tile of the result is written by one
+   * band only.
+   *
+   * @param inputImage the image on which the filter has to be applied
+   * @return a new Image, tiled like the input, with the filter applied
+   */
+  private Image applyTiled(TiledImage inputImage) {
+    int tileSize = inputImage.getTileSize();
+    TiledImage newImage = new TiledImage(inputImage.getHeight(), inputImage.getWidth(),
+            inputImage.getMax(), tileSize);
+    RowBands.shared().forEach(inputImage.getTileRows(),
+            (long) tileSize * inputImage.getWidth(),
+            (from, to) -> applyTiles(FilterBackend.shared(), inputImage, newImage, from, to));
     return newImage;
   }
+
+  /**
+   * Applies the kernel to the tiles of a band of rows of tiles. Separable kernels filter the rows
+   * of the tile and of its halo horizontally, then sum the filtered rows vertically.
+   *
+   * @param backend    the backend doing the arithmetic
+   * @param inputImage the image on which the filter has to be applied
+   * @param newImage   the image receiving the filtered tiles, tiled like the input
+   * @param from       first row of tiles of the band
+   * @param to         row of tiles after the last one of the band
+   * @param <R>        the type of the horizontally filtered rows of the backend
+   */
+  private <R> void applyTiles(FilterBackend<R> backend, TiledImage inputImage,
+                              TiledImage newImage, int from, int to) {
+    int half = size / 2;
+    int tileSize = inputImage.getTileSize();
+    int[] outR = new int[tileSize];
+    int[] outG = new int[tileSize];
+    int[] outB = new int[tileSize];
+
+    int[][] underR = new int[size][];
+    int[][] underG = new int[size][];
+    int[][] underB = new int[size][];
+    int[] offsets = new int[size];
+
+    // Horizontally filtered rows of a tile and of its halo above and below, for separable kernels
+    int filteredSize = isSeparable() ? (tileSize + 2 * half) * tileSize : 0;
+    R[] filtered = backend.newRows(3, filteredSize);
+    R filteredR = filtered[0];
+    R filteredG = filtered[1];
+    R filteredB = filtered[2];
+    R[] filteredRowsR = backend.newRows(size, 0);
+    R[] filteredRowsG = backend.newRows(size, 0);
+    R[] filteredRowsB = backend.newRows(size, 0);
+    Arrays.fill(filteredRowsR, filteredR);
+    Arrays.fill(filteredRowsG, filteredG);
+    Arrays.fill(filteredRowsB, filteredB);
+
+    for (Tile tile : inputImage.tiles(half, edges, from, to)) {
+      // Every row under the kernel is a row of the buffers of the tile
+      Arrays.fill(underR, tile.getRed());
+      Arrays.fill(underG, tile.getGreen());
+      Arrays.fill(underB, tile.getBlue());
+      int tileWidth = tile.getWidth();
+      Image outputTile = newImage.getTile(tile.getRow() / tileSize, tile.getColumn() / tileSize);
+
+      if (isSeparable()) {
+        for (int x = -half; x < tile.getHeight() + half; x++) {
+          int offset = tile.index(x, -half);
+          int filteredOffset = (x + half) * tileWidth;
+          backend.filterRow(rowWeights, tile.getRed(), offset, tileWidth, filteredR,
+                  filteredOffset);
+          backend.filterRow(rowWeights, tile.getGreen(), offset, tileWidth, filteredG,
+                  filteredOffset);
+          backend.filterRow(rowWeights, tile.getBlue(), offset, tileWidth, filteredB,
+                  filteredOffset);
+        }
+        for (int x = 0; x < tile.getHeight(); x++) {
+          for (int i = 0; i < size; i++) {
+            offsets[i] = (x + i) * tileWidth;
+          }
+          backend.combine(columnWeights, filteredRowsR, offsets, tileWidth, outR);
+          backend.combine(columnWeights, filteredRowsG, offsets, tileWidth, outG);
+          backend.combine(columnWeights, filteredRowsB, offsets, tileWidth, outB);
+          outputTile.setRow(x, outR, outG, outB);
+        }
+        continue;
+      }
+
+      for (int x = 0; x < tile.getHeight(); x++) {
+        for (int i = 0; i < size; i++) {
+          offsets[i] = tile.index(x - half + i, -half);
+        }
+        backend.convolve(kernelWeights, underR, offsets, tileWidth, outR);
+        backend.convolve(kernelWeights, underG, offsets, tileWidth, outG);
+        backend.convolve(kernelWeights, underB, offsets, tileWidth, outB);
+        outputTile.setRow(x, outR, outG, outB);
+      }
+    }
+  }
 }
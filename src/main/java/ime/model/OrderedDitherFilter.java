@@ -0,0 +1,236 @@
+package ime.model;
+
+import java.util.Random;
+
+/**
+ * Implementation of Filter that dithers an image by comparing every grey pixel with a threshold
+ * map tiled over the image. The result of a pixel depends only on its own grey value and on its
+ * position, so the rows are dithered in parallel with no order between them.
+ * The map holds the ranks 0 to n - 1 of its n cells; a pixel becomes the max value when its grey
+ * value is above (rank + 1/2) / n of the max value, and 0 otherwise.
+ */
+class OrderedDitherFilter implements Filter {
+  // Side of the blue noise map and spread of the filter measuring the clusters of its cells
+  private static final int BLUE_NOISE_SIZE = 64;
+  private static final double BLUE_NOISE_SIGMA = 1.5;
+
+  private final Filter greyscale;
+  private final int[][] ranks;
+
+  /**
+   * Constructs an ordered dither filter.
+   *
+   * @param greyscale the filter that makes the image grey before it is dithered
+   * @param ranks     the threshold map, a permutation of 0 to n - 1 in its n cells
+   */
+  OrderedDitherFilter(Filter greyscale, int[][] ranks) {
+    this.greyscale = greyscale;
+    this.ranks = ranks;
+  }
+
+  /**
+   * Gets the filter dithering with a Bayer matrix, whose thresholds are spread as evenly as
+   * possible on a grid and give a regular cross-hatched pattern.
+   *
+   * @param greyscale the filter that makes the image grey before it is dithered
+   * @param size      the side of the matrix, a power of two
+   * @return the ordered dither filter
+   */
+  static OrderedDitherFilter bayer(Filter greyscale, int size) {
+    if (size < 1 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("The size of a Bayer matrix must be a power of two");
+    }
+    int[][] matrix = {{0}};
+    for (int side = 1; side < size; side *= 2) {
+      // Each cell of the matrix of twice the side is 4 times a cell of the smaller one plus 0, 2,
+      // 3 or 1 depending on its quadrant
+      int[][] larger = new int[2 * side][2 * side];
+      for (int x = 0; x < side; x++) {
+        for (int y = 0; y < side; y++) {
+          int rank = 4 * matrix[x][y];
+          larger[x][y] = rank;
+          larger[x][y + side] = rank + 2;
+          larger[x + side][y] = rank + 3;
+          larger[x + side][y + side] = rank + 1;
+        }
+      }
+      matrix = larger;
+    }
+    return new OrderedDitherFilter(greyscale, matrix);
+  }
+
+  /**
+   * Gets the filter dithering with a blue noise map, whose thresholds have no low frequencies
+   * and give an even pattern without the structure of a Bayer matrix.
+   *
+   * @param greyscale the filter that makes the image grey before it is dithered
+   * @return the ordered dither filter
+   */
+  static OrderedDitherFilter blueNoise(Filter greyscale) {
+    return new OrderedDitherFilter(greyscale, BlueNoise.RANKS);
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+
+    // A point filter makes the rows grey as they are read, any other filter the whole image
+    Image source;
+    PointOperation toGrey;
+    if (greyscale instanceof PointFilter) {
+      source = inputImage;
+      toGrey = ((PointFilter) greyscale).rowOperation(max);
+    } else {
+      source = greyscale.apply(inputImage);
+      toGrey = null;
+    }
+    Image result = inputImage.getStorage().create(height, width, max);
+
+    // A grey value g is white when 2 * g * n > (2 * rank + 1) * max, the thresholds of each rank
+    // are computed once as the smallest white value
+    int cells = ranks.length * ranks[0].length;
+    long[] white = new long[cells];
+    for (int rank = 0; rank < cells; rank++) {
+      white[rank] = (2L * rank + 1) * max / (2L * cells) + 1;
+    }
+
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      int[] grey = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int i = from; i < to; i++) {
+        source.getRow(i, grey, green, blue);
+        if (toGrey != null) {
+          toGrey.apply(grey, green, blue, width, max);
+        }
+        int[] rankRow = ranks[i % ranks.length];
+        for (int j = 0; j < width; j++) {
+          grey[j] = grey[j] >= white[rankRow[j % rankRow.length]] ? max : 0;
+        }
+        // The dithered row is grey, the same plane is written to every channel
+        result.setRow(i, grey, grey, grey);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Blue noise threshold map, built once on first use by the void and cluster method.
+   */
+  private static final class BlueNoise {
+    private static final int[][] RANKS = voidAndCluster(BLUE_NOISE_SIZE, BLUE_NOISE_SIGMA);
+
+    /**
+     * Builds a blue noise map by the void and cluster method. Every cell holding a point spreads
+     * a Gaussian over the map, wrapped around its edges; the point with the highest sum under it
+     * sits in the tightest cluster and the empty cell with the lowest sum is the largest void.
+     * A random pattern is first relaxed by moving points from clusters to voids; its points are
+     * then ranked by taking the tightest clusters out one by one, and the remaining cells by
+     * filling the largest voids one by one.
+     *
+     * @param size  side of the map
+     * @param sigma spread of the Gaussian of a point
+     * @return the ranks of the cells of the map
+     */
+    private static int[][] voidAndCluster(int size, double sigma) {
+      int cells = size * size;
+      double[][] gaussian = new double[size][size];
+      for (int dx = 0; dx < size; dx++) {
+        for (int dy = 0; dy < size; dy++) {
+          int x = Math.min(dx, size - dx);
+          int y = Math.min(dy, size - dy);
+          gaussian[dx][dy] = Math.exp(-(x * x + y * y) / (2 * sigma * sigma));
+        }
+      }
+
+      // A fixed seed, the map is the same on every run
+      boolean[] pattern = new boolean[cells];
+      double[] energy = new double[cells];
+      Random random = new Random(size);
+      int points = 0;
+      while (points < cells / 10) {
+        int cell = random.nextInt(cells);
+        if (!pattern[cell]) {
+          toggle(pattern, energy, gaussian, size, cell);
+          points++;
+        }
+      }
+      while (true) {
+        int cluster = extreme(pattern, energy, true);
+        toggle(pattern, energy, gaussian, size, cluster);
+        int largestVoid = extreme(pattern, energy, false);
+        toggle(pattern, energy, gaussian, size, largestVoid);
+        if (largestVoid == cluster) {
+          break;
+        }
+      }
+
+      int[] ranks = new int[cells];
+      boolean[] removing = pattern.clone();
+      double[] removingEnergy = energy.clone();
+      for (int rank = points - 1; rank >= 0; rank--) {
+        int cluster = extreme(removing, removingEnergy, true);
+        toggle(removing, removingEnergy, gaussian, size, cluster);
+        ranks[cluster] = rank;
+      }
+      for (int rank = points; rank < cells; rank++) {
+        int largestVoid = extreme(pattern, energy, false);
+        toggle(pattern, energy, gaussian, size, largestVoid);
+        ranks[largestVoid] = rank;
+      }
+
+      int[][] map = new int[size][size];
+      for (int cell = 0; cell < cells; cell++) {
+        map[cell / size][cell % size] = ranks[cell];
+      }
+      return map;
+    }
+
+    /**
+     * Adds a point to an empty cell or removes the point of a cell, updating the sums of the
+     * Gaussians of the points over the map.
+     *
+     * @param pattern  the cells holding a point
+     * @param energy   the sum of the Gaussians of the points at every cell
+     * @param gaussian the Gaussian of a point by the distance along each axis
+     * @param size     side of the map
+     * @param cell     the cell to toggle
+     */
+    private static void toggle(boolean[] pattern, double[] energy, double[][] gaussian, int size,
+                               int cell) {
+      pattern[cell] = !pattern[cell];
+      double sign = pattern[cell] ? 1 : -1;
+      int px = cell / size;
+      int py = cell % size;
+      for (int x = 0; x < size; x++) {
+        double[] column = gaussian[Math.floorMod(x - px, size)];
+        for (int y = 0; y < size; y++) {
+          energy[x * size + y] += sign * column[Math.floorMod(y - py, size)];
+        }
+      }
+    }
+
+    /**
+     * Finds the point in the tightest cluster or the empty cell in the largest void, the first
+     * one in the order of the cells on a tie.
+     *
+     * @param pattern the cells holding a point
+     * @param energy  the sum of the Gaussians of the points at every cell
+     * @param cluster true to find the point with the highest sum, false for the empty cell with
+     *                the lowest
+     * @return the cell found
+     */
+    private static int extreme(boolean[] pattern, double[] energy, boolean cluster) {
+      int found = -1;
+      for (int cell = 0; cell < pattern.length; cell++) {
+        if (pattern[cell] == cluster && (found < 0
+                || (cluster ? energy[cell] > energy[found] : energy[cell] < energy[found]))) {
+          found = cell;
+        }
+      }
+      return found;
+    }
+  }
+}
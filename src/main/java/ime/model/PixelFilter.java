@@ -5,9 +5,13 @@ import java.util.function.Function;
 /**
  * Implementation of the Filter, that applies a function to each of the pixel of the image and
  * returns a new image with filter applied.
+ * The function is a pixel kernel writing the channels of a pixel straight into the buffers of
+ * the row, a filter given as curried functions returning a Pixel is adapted to a kernel.
+ * Bands of rows of large images are computed in parallel, so the function may be called from
+ * several threads at once.
  */
 public class PixelFilter implements Filter {
-  private final Function<Image, Function<Integer, Function<Integer, Pixel>>> filterFunction;
+  private final PixelKernel kernel;
 
   /**
    * Constructor that gets the filter function that has to be applied for the image.
@@ -16,18 +20,52 @@ public class PixelFilter implements Filter {
    *                       resulting image.
    */
   public PixelFilter(Function<Image, Function<Integer, Function<Integer, Pixel>>> filterFunction) {
-    this.filterFunction = filterFunction;
+    this(new PixelKernel() {
+      @Override
+      public void apply(Image source, int x, int y, int[] red, int[] green, int[] blue) {
+        forImage(source).apply(source, x, y, red, green, blue);
+      }
+
+      @Override
+      public PixelKernel forImage(Image source) {
+        // The image function is applied once per image, the row function once per pixel
+        Function<Integer, Function<Integer, Pixel>> imageFunction = filterFunction.apply(source);
+        return (image, x, y, red, green, blue) -> {
+          Pixel pixel = imageFunction.apply(x).apply(y);
+          red[y] = pixel.getRed();
+          green[y] = pixel.getGreen();
+          blue[y] = pixel.getBlue();
+        };
+      }
+    });
+  }
+
+  /**
+   * Constructs a pixel filter given the kernel computing each pixel.
+   *
+   * @param kernel the kernel computing a pixel of the result
+   */
+  PixelFilter(PixelKernel kernel) {
+    this.kernel = kernel;
   }
 
   @Override
   public Image apply(Image inputImage) {
-    Image newImage = new RGBImage(inputImage.getHeight(), inputImage.getWidth(),
-            inputImage.getMax());
-    for (int i = 0; i < newImage.getHeight(); i++) {
-      for (int j = 0; j < newImage.getWidth(); j++) {
-        newImage.setPixel(i, j, filterFunction.apply(inputImage).apply(i).apply(j));
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    Image newImage = inputImage.getStorage().create(height, width, inputImage.getMax());
+    PixelKernel imageKernel = kernel.forImage(inputImage);
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int i = from; i < to; i++) {
+        for (int j = 0; j < width; j++) {
+          imageKernel.apply(inputImage, i, j, red, green, blue);
+        }
+        newImage.setRow(i, red, green, blue);
       }
-    }
+    });
     return newImage;
   }
 
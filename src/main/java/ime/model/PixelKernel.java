@@ -0,0 +1,33 @@
+package ime.model;
+
+/**
+ * The work of a pixel filter on one pixel: it reads whatever pixels of the source image it
+ * needs by their int coordinates and writes the channels of the resulting pixel straight into
+ * the buffers of the row being computed, without boxing the coordinates or creating a Pixel.
+ */
+@FunctionalInterface
+interface PixelKernel {
+  /**
+   * Computes a pixel of the result. Resulting values may be out of range, they are clamped by
+   * the image the row is written to.
+   *
+   * @param source the image the filter is applied to
+   * @param x      row of the pixel
+   * @param y      column of the pixel, also its index in the buffers
+   * @param red    the red values of the resulting row
+   * @param green  the green values of the resulting row
+   * @param blue   the blue values of the resulting row
+   */
+  void apply(Image source, int x, int y, int[] red, int[] green, int[] blue);
+
+  /**
+   * Gets a kernel that gives the same pixels with whatever it depends on in the given image
+   * computed once, before the kernel is called for every pixel of the image.
+   *
+   * @param source the image the filter is applied to
+   * @return the kernel for the image, or this kernel if it needs nothing from the image
+   */
+  default PixelKernel forImage(Image source) {
+    return this;
+  }
+}
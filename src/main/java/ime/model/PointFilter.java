@@ -0,0 +1,131 @@
+package ime.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of Filter made of point operations, operations whose value for a pixel depends
+ * only on the channels of the same pixel. Point filters applied one after the other can be fused
+ * into a single filter that runs all their operations on a row while it is in the buffers, so
+ * that a chain of point operations costs one pass over the image and no intermediate images.
+ * Values are clamped between the operations exactly as they would be by an intermediate image, so
+ * a fused filter gives the same result as the filters applied one after the other.
+ */
+public class PointFilter implements Filter {
+  private final List<PointOperation> operations;
+
+  /**
+   * Constructs a point filter given its operations, consecutive channel operations are folded
+   * into one.
+   *
+   * @param operations the operations applied one after the other
+   */
+  PointFilter(PointOperation... operations) {
+    this(List.of(operations));
+  }
+
+  private PointFilter(List<PointOperation> operations) {
+    this.operations = new ArrayList<>();
+    for (PointOperation operation : operations) {
+      int last = this.operations.size() - 1;
+      if (last >= 0 && this.operations.get(last) instanceof ChannelOperation
+              && operation instanceof ChannelOperation) {
+        this.operations.set(last, ((ChannelOperation) this.operations.get(last))
+                .andThen((ChannelOperation) operation));
+      } else {
+        this.operations.add(operation);
+      }
+    }
+  }
+
+  /**
+   * Fuses this filter and the given one into a single filter that applies both in one pass.
+   *
+   * @param next the filter applied after this one
+   * @return the fused filter
+   */
+  public PointFilter andThen(PointFilter next) {
+    List<PointOperation> fused = new ArrayList<>(operations);
+    fused.addAll(next.operations);
+    return new PointFilter(fused);
+  }
+
+  @Override
+  public Image apply(Image inputImage) {
+    int height = inputImage.getHeight();
+    int width = inputImage.getWidth();
+    int max = inputImage.getMax();
+    Image newImage = inputImage.getStorage().create(height, width, max);
+
+    PointOperation kernel = rowOperation(max);
+
+    if (kernel instanceof ChannelOperation.Table
+            && inputImage instanceof BytePlaneImage && newImage instanceof BytePlaneImage) {
+      // A single table maps the planes of 8 bit images directly, a pixel costs three loads
+      byte[] table = new byte[0xFF + 1];
+      for (int value = 0; value <= max; value++) {
+        int result = ((ChannelOperation.Table) kernel).get(value);
+        table[value] = (byte) Math.max(0, Math.min(result, max));
+      }
+      RowBands.shared().forEach(height, width, (from, to) -> ((BytePlaneImage) newImage)
+              .lookup((BytePlaneImage) inputImage, table, from, to));
+      return newImage;
+    }
+
+    // Bands of rows are processed in parallel, each with its own buffers
+    RowBands.shared().forEach(height, width, (from, to) -> {
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int i = from; i < to; i++) {
+        inputImage.getRow(i, red, green, blue);
+        kernel.apply(red, green, blue, width, max);
+        newImage.setRow(i, red, green, blue);
+      }
+    });
+    return newImage;
+  }
+
+  /**
+   * Gets the operations of this filter as a single operation on the rows of images of the given
+   * max value. The operations become lookup tables for the max value and the values are clamped
+   * between them, the result of the last operation is left for the image to clamp.
+   *
+   * @param max the max value of the images
+   * @return the operation applying the whole filter to a row
+   */
+  PointOperation rowOperation(int max) {
+    PointOperation[] kernels = new PointOperation[operations.size()];
+    for (int k = 0; k < kernels.length; k++) {
+      kernels[k] = operations.get(k).withTable(max);
+    }
+    if (kernels.length == 1) {
+      return kernels[0];
+    }
+    return (red, green, blue, width, imageMax) -> {
+      for (int k = 0; k < kernels.length; k++) {
+        if (k > 0) {
+          clamp(red, green, blue, width, imageMax);
+        }
+        kernels[k].apply(red, green, blue, width, imageMax);
+      }
+    };
+  }
+
+  /**
+   * Clamps a row of values between 0 and max, as an intermediate image would.
+   *
+   * @param red   the red values of the row
+   * @param green the green values of the row
+   * @param blue  the blue values of the row
+   * @param width number of pixels in the row
+   * @param max   the max value of the image
+   */
+  private static void clamp(int[] red, int[] green, int[] blue, int width, int max) {
+    for (int y = 0; y < width; y++) {
+      red[y] = Math.max(0, Math.min(red[y], max));
+      green[y] = Math.max(0, Math.min(green[y], max));
+      blue[y] = Math.max(0, Math.min(blue[y], max));
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package ime.model;
+
+/**
+ * An operation whose value for a pixel depends only on the channels of the same pixel, such as
+ * brighten, the greyscales or color transformations. It is applied on a row of pixels at a time,
+ * in place in the channel buffers.
+ */
+@FunctionalInterface
+interface PointOperation {
+  /**
+   * Applies the operation on a row of pixels, the given channel values are between 0 and the max
+   * value. Resulting values may be out of range, they are clamped by the caller.
+   *
+   * @param red   the red values of the row, replaced by the resulting values
+   * @param green the green values of the row, replaced by the resulting values
+   * @param blue  the blue values of the row, replaced by the resulting values
+   * @param width number of pixels in the row
+   * @param max   the max value of the image
+   */
+  void apply(int[] red, int[] green, int[] blue, int width, int max);
+
+  /**
+   * Gets an operation that gives the same values through lookup tables built once for images of
+   * the given max value, so that a pixel costs an indexed load per channel.
+   *
+   * @param max the max value of the image
+   * @return the operation using lookup tables, or this operation if it has none
+   */
+  default PointOperation withTable(int max) {
+    return this;
+  }
+}
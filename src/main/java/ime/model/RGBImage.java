@@ -1,15 +1,16 @@
 package ime.model;
 
-import java.util.Objects;
+import java.lang.foreign.MemorySegment;
 
 /**
  * Implementation of Image, represents an RGB Image and its functions.
+ * The pixels are stored as three primitive planes, one per channel, laid out row after row, so
+ * an image costs three ints per pixel instead of one object per pixel.
  */
-class RGBImage implements Image {
-  private final RGBPixel[][] pixels;
-  private final int width;
-  private final int height;
-  private final int max;
+class RGBImage extends AbstractImage {
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
 
   /**
    * Constructor to create an instance of RGB image.
@@ -19,84 +20,83 @@ class RGBImage implements Image {
    * @param max    maximum value of a channel of a pixel in the image
    */
   public RGBImage(int height, int width, int max) {
-    this.height = height;
-    this.width = width;
-    this.max = max;
-    pixels = new RGBPixel[height][width];
+    super(height, width, max);
+    this.red = new int[height * width];
+    this.green = new int[height * width];
+    this.blue = new int[height * width];
   }
 
-  @Override
-  public int getHeight() {
-    return this.height;
+  /**
+   * Gets the index of a pixel in the channel planes.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the index in the planes
+   */
+  private int index(int x, int y) {
+    checkBounds(x, y);
+    return x * width + y;
   }
 
   @Override
-  public int getWidth() {
-    return this.width;
+  MemorySegment plane(Channel channel) {
+    switch (channel) {
+      case RED:
+        return MemorySegment.ofArray(red);
+      case GREEN:
+        return MemorySegment.ofArray(green);
+      default:
+        return MemorySegment.ofArray(blue);
+    }
   }
 
   @Override
-  public int getMax() {
-    return this.max;
+  public ImageStorage getStorage() {
+    return ImageStorage.HEAP;
   }
 
   @Override
-  public Pixel getPixel(int x, int y) {
-    try {
-      return this.pixels[x][y];
-    } catch (IndexOutOfBoundsException e) {
-      throw new IllegalArgumentException("Please specify the Pixel indices in the bounds.");
-    }
+  public int getRed(int x, int y) {
+    return this.red[index(x, y)];
   }
 
   @Override
-  public void setPixel(int x, int y, Pixel p) {
-    this.pixels[x][y] = (RGBPixel) p;
+  public int getGreen(int x, int y) {
+    return this.green[index(x, y)];
   }
 
   @Override
-  public Image applyFilter(Filter filter) {
-    return filter.apply(this);
+  public int getBlue(int x, int y) {
+    return this.blue[index(x, y)];
   }
 
   @Override
-  public boolean equals(Object o) {
-    if (o == this) {
-      return true;
-    }
-
-    if (!(o instanceof RGBImage)) {
-      return false;
-    }
-
-    Image that = (RGBImage) o;
-
-    boolean isEqual =
-            this.height == that.getHeight() && this.max == that.getMax()
-                    && this.width == that.getWidth();
-
-
-    if (isEqual) {
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          isEqual = isEqual && this.getPixel(i, j).equals(that.getPixel(i, j));
-        }
-      }
-    }
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    modified();
+    int index = index(x, y);
+    this.red[index] = clamp(red);
+    this.green[index] = clamp(green);
+    this.blue[index] = clamp(blue);
+  }
 
-    return isEqual;
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    int offset = x * width;
+    System.arraycopy(this.red, offset, red, 0, width);
+    System.arraycopy(this.green, offset, green, 0, width);
+    System.arraycopy(this.blue, offset, blue, 0, width);
   }
 
   @Override
-  public int hashCode() {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        sb.append(this.pixels[i][j].getRed()).append(this.pixels[i][j].getGreen())
-                .append(this.pixels[i][j].getBlue());
-      }
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    modified();
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      this.red[offset + y] = clamp(red[y]);
+      this.green[offset + y] = clamp(green[y]);
+      this.blue[offset + y] = clamp(blue[y]);
     }
-    return Objects.hash(this.height, this.width,
-            this.max, sb.toString());
   }
 }
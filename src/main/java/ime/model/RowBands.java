@@ -0,0 +1,157 @@
+package ime.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the work of a filter over bands of consecutive rows of an image on a fork join pool.
+ * The rows are split in halves until a band holds no more than a threshold of pixels, so that
+ * small images stay on the calling thread and large images are spread over the workers of the
+ * pool. Each row of the result is computed by exactly one band with the same arithmetic as on a
+ * single thread, so the result does not depend on the number of workers.
+ * The filters use the shared instance, which the application configures once at startup.
+ */
+public final class RowBands implements AutoCloseable {
+  /**
+   * Pixels of a band below which the work is not split any further.
+   */
+  public static final int DEFAULT_THRESHOLD = 1 << 18;
+
+  private static volatile RowBands shared = new RowBands(0, DEFAULT_THRESHOLD);
+
+  private final ForkJoinPool pool;
+  private final boolean ownsPool;
+  private final int threshold;
+
+  /**
+   * Work done on a band of rows.
+   */
+  @FunctionalInterface
+  interface Band {
+    /**
+     * Does the work of the rows of a band.
+     *
+     * @param from first row of the band
+     * @param to   row after the last row of the band
+     */
+    void apply(int from, int to);
+  }
+
+  /**
+   * Creates the executor of the bands.
+   *
+   * @param parallelism number of workers, 0 to use the common pool and 1 to stay on the calling
+   *                    thread
+   * @param threshold   pixels of a band below which the work is not split any further
+   */
+  public RowBands(int parallelism, int threshold) {
+    if (parallelism < 0 || threshold <= 0) {
+      throw new IllegalArgumentException("Please provide a valid parallelism and threshold");
+    }
+    if (parallelism == 0) {
+      this.pool = ForkJoinPool.commonPool();
+      this.ownsPool = false;
+    } else if (parallelism == 1) {
+      this.pool = null;
+      this.ownsPool = false;
+    } else {
+      this.pool = new ForkJoinPool(parallelism);
+      this.ownsPool = true;
+    }
+    this.threshold = threshold;
+  }
+
+  /**
+   * Gets the executor used by the filters.
+   *
+   * @return the shared executor
+   */
+  public static RowBands shared() {
+    return shared;
+  }
+
+  /**
+   * Sets the executor used by the filters.
+   *
+   * @param bands the shared executor
+   */
+  public static void setShared(RowBands bands) {
+    shared = bands;
+  }
+
+  /**
+   * Gets the number of workers the bands are spread over.
+   *
+   * @return the parallelism, 1 when the work stays on the calling thread
+   */
+  public int getParallelism() {
+    return pool == null ? 1 : pool.getParallelism();
+  }
+
+  /**
+   * Gets the number of pixels of a band below which the work is not split any further.
+   *
+   * @return the threshold
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Does the work of every row, split in bands run in parallel when there are enough pixels.
+   * Returns once every band is done, an exception thrown by a band is thrown again here.
+   *
+   * @param rows      number of rows
+   * @param rowPixels number of pixels of a row, the cost of a row
+   * @param band      the work of a band of rows
+   */
+  void forEach(int rows, long rowPixels, Band band) {
+    if (pool == null || rows < 2 || rows * rowPixels <= threshold) {
+      band.apply(0, rows);
+      return;
+    }
+    pool.invoke(new Split(0, rows, rowPixels, band));
+  }
+
+  /**
+   * Task that splits its rows in halves until a band is under the threshold.
+   */
+  private final class Split extends RecursiveAction {
+    private final int from;
+    private final int to;
+    private final long rowPixels;
+    private final Band band;
+
+    /**
+     * Constructs the task of a band.
+     *
+     * @param from      first row of the band
+     * @param to        row after the last row of the band
+     * @param rowPixels number of pixels of a row
+     * @param band      the work of a band of rows
+     */
+    private Split(int from, int to, long rowPixels, Band band) {
+      this.from = from;
+      this.to = to;
+      this.rowPixels = rowPixels;
+      this.band = band;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from < 2 || (to - from) * rowPixels <= threshold) {
+        band.apply(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Split(from, middle, rowPixels, band), new Split(middle, to, rowPixels, band));
+    }
+  }
+
+  @Override
+  public void close() {
+    if (ownsPool) {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package ime.model;
+
+/**
+ * Filter backend computing one pixel at a time with plain Java loops, used where the Vector API
+ * is not available and for the pixels left over by the vector backend.
+ */
+class ScalarBackend extends FilterBackend<double[]> {
+
+  @Override
+  public String getName() {
+    return "scalar";
+  }
+
+  @Override
+  double[][] newRows(int count, int length) {
+    return new double[count][length];
+  }
+
+  @Override
+  void convolve(Weights kernel, int[][] rows, int[] offsets, int width, int[] out) {
+    convolve(kernel.values(), rows, offsets, 0, width, out);
+  }
+
+  /**
+   * Convolves a range of pixels of rows of a channel with a kernel and rounds the sums.
+   *
+   * @param kernel  the square kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param from    first pixel of the range
+   * @param to      pixel after the last one of the range
+   * @param out     buffer that receives the result
+   */
+  static void convolve(double[][] kernel, int[][] rows, int[] offsets, int from, int to,
+                       int[] out) {
+    int size = kernel.length;
+    if (size == 3) {
+      convolve3(kernel, rows, offsets, from, to, out);
+      return;
+    } else if (size == 5) {
+      convolve5(kernel, rows, offsets, from, to, out);
+      return;
+    }
+    for (int y = from; y < to; y++) {
+      double sum = 0;
+      for (int i = 0; i < size; i++) {
+        double[] kernelRow = kernel[i];
+        int[] row = rows[i];
+        int offset = offsets[i] + y;
+        for (int j = 0; j < size; j++) {
+          sum += kernelRow[j] * row[offset + j];
+        }
+      }
+      out[y] = (int) Math.round(sum);
+    }
+  }
+
+  /**
+   * Convolves a range of pixels of rows of a channel with a 3x3 kernel, unrolled with the entries
+   * of the kernel held in locals. The products are added in the same order as the general loop.
+   *
+   * @param kernel  the 3x3 kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param from    first pixel of the range
+   * @param to      pixel after the last one of the range
+   * @param out     buffer that receives the result
+   */
+  private static void convolve3(double[][] kernel, int[][] rows, int[] offsets, int from, int to,
+                                int[] out) {
+    double k00 = kernel[0][0];
+    double k01 = kernel[0][1];
+    double k02 = kernel[0][2];
+    double k10 = kernel[1][0];
+    double k11 = kernel[1][1];
+    double k12 = kernel[1][2];
+    double k20 = kernel[2][0];
+    double k21 = kernel[2][1];
+    double k22 = kernel[2][2];
+    int[] top = rows[0];
+    int[] middle = rows[1];
+    int[] bottom = rows[2];
+    int topOffset = offsets[0];
+    int middleOffset = offsets[1];
+    int bottomOffset = offsets[2];
+    for (int y = from; y < to; y++) {
+      int t = topOffset + y;
+      int m = middleOffset + y;
+      int b = bottomOffset + y;
+      double sum = 0;
+      sum = sum + k00 * top[t] + k01 * top[t + 1] + k02 * top[t + 2];
+      sum = sum + k10 * middle[m] + k11 * middle[m + 1] + k12 * middle[m + 2];
+      sum = sum + k20 * bottom[b] + k21 * bottom[b + 1] + k22 * bottom[b + 2];
+      out[y] = (int) Math.round(sum);
+    }
+  }
+
+  /**
+   * Convolves a range of pixels of rows of a channel with a 5x5 kernel, unrolled along the rows
+   * of the kernel. The products are added in the same order as the general loop.
+   *
+   * @param kernel  the 5x5 kernel
+   * @param rows    the rows under each row of the kernel
+   * @param offsets index of the pixel under the top left of the kernel for the first pixel
+   * @param from    first pixel of the range
+   * @param to      pixel after the last one of the range
+   * @param out     buffer that receives the result
+   */
+  private static void convolve5(double[][] kernel, int[][] rows, int[] offsets, int from, int to,
+                                int[] out) {
+    for (int y = from; y < to; y++) {
+      double sum = 0;
+      for (int i = 0; i < 5; i++) {
+        double[] k = kernel[i];
+        int[] row = rows[i];
+        int o = offsets[i] + y;
+        sum = sum + k[0] * row[o] + k[1] * row[o + 1] + k[2] * row[o + 2] + k[3] * row[o + 3]
+                + k[4] * row[o + 4];
+      }
+      out[y] = (int) Math.round(sum);
+    }
+  }
+
+  @Override
+  void filterRow(Weights row, int[] channel, int offset, int width, double[] filtered,
+                 int filteredOffset) {
+    filterRow(row.values()[0], channel, offset, 0, width, filtered, filteredOffset);
+  }
+
+  /**
+   * Filters a range of pixels of a row of a channel with the row of a separable kernel.
+   *
+   * @param row            the row of the kernel
+   * @param channel        the values of the channel, including the pixels on either side
+   * @param offset         index of the pixel under the start of the kernel for the first pixel
+   * @param from           first pixel of the range
+   * @param to             pixel after the last one of the range
+   * @param filtered       buffer that receives the filtered values
+   * @param filteredOffset index of the first pixel of the result in the buffer
+   */
+  static void filterRow(double[] row, int[] channel, int offset, int from, int to,
+                        double[] filtered, int filteredOffset) {
+    for (int y = from; y < to; y++) {
+      double sum = 0;
+      for (int j = 0; j < row.length; j++) {
+        sum += row[j] * channel[offset + y + j];
+      }
+      filtered[filteredOffset + y] = sum;
+    }
+  }
+
+  @Override
+  void combine(Weights column, double[][] rows, int[] offsets, int width, int[] out) {
+    combine(column.values()[0], rows, offsets, 0, width, out);
+  }
+
+  /**
+   * Sums a range of pixels of horizontally filtered rows with the column of a separable kernel
+   * and rounds the sums.
+   *
+   * @param column  the column of the kernel
+   * @param rows    the filtered rows under each entry of the column
+   * @param offsets index of the first pixel in each row
+   * @param from    first pixel of the range
+   * @param to      pixel after the last one of the range
+   * @param out     buffer that receives the result
+   */
+  static void combine(double[] column, double[][] rows, int[] offsets, int from, int to,
+                      int[] out) {
+    for (int y = from; y < to; y++) {
+      double sum = 0;
+      for (int i = 0; i < column.length; i++) {
+        sum += column[i] * rows[i][offsets[i] + y];
+      }
+      out[y] = (int) Math.round(sum);
+    }
+  }
+
+  @Override
+  void transform(Weights matrix, int[] red, int[] green, int[] blue, int width) {
+    transform(matrix.values(), red, green, blue, 0, width);
+  }
+
+  /**
+   * Multiplies the channels of a range of pixels of a row by a 3x3 matrix and rounds the
+   * results, the row is transformed in place.
+   *
+   * @param matrix the rows of the matrix giving the red, green and blue results
+   * @param red    the red values of the row
+   * @param green  the green values of the row
+   * @param blue   the blue values of the row
+   * @param from   first pixel of the range
+   * @param to     pixel after the last one of the range
+   */
+  static void transform(double[][] matrix, int[] red, int[] green, int[] blue, int from,
+                        int to) {
+    double[] redRow = matrix[0];
+    double[] greenRow = matrix[1];
+    double[] blueRow = matrix[2];
+    for (int j = from; j < to; j++) {
+      int r = red[j];
+      int g = green[j];
+      int b = blue[j];
+
+      red[j] = (int) Math.round(redRow[0] * r + redRow[1] * g + redRow[2] * b);
+      green[j] = (int) Math.round(greenRow[0] * r + greenRow[1] * g + greenRow[2] * b);
+      blue[j] = (int) Math.round(blueRow[0] * r + blueRow[1] * g + blueRow[2] * b);
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package ime.model;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Implementation of Image whose pixels live in native memory outside of the Java heap.
+ * The three channel planes are laid out one after the other in a single memory segment that is
+ * allocated from its own shared arena, so that any thread can read the image and the memory can
+ * be freed as soon as the image is released instead of waiting for a garbage collection.
+ * Like the images on the heap, a sample takes one, two or four bytes depending on the max value
+ * of the image. A greyscale image holds a single plane that every channel reads, writing a pixel
+ * whose channels differ in it is an error.
+ */
+class SegmentImage extends AbstractImage {
+  private final Arena arena;
+  private final MemorySegment segment;
+  private final long planeSize;
+  private final int sampleSize;
+  private final int planes;
+
+  /**
+   * Constructor to create an off-heap image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   */
+  public SegmentImage(int height, int width, int max) {
+    this(height, width, max, 3);
+  }
+
+  /**
+   * Constructor to create an off-heap image of one or three planes.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   * @param planes 1 for a greyscale image, 3 otherwise
+   */
+  SegmentImage(int height, int width, int max, int planes) {
+    this(height, width, max, planes, Arena.ofShared());
+  }
+
+  /**
+   * Constructor to create an off-heap image in the given arena.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image
+   * @param planes 1 for a greyscale image, 3 otherwise
+   * @param arena  the arena that owns the memory of the image, closed when the image is released
+   */
+  private SegmentImage(int height, int width, int max, int planes, Arena arena) {
+    // Native memory allocated by an arena is zeroed
+    this(height, width, max, planes, arena,
+            arena.allocate(byteSize(height, width, max, planes), sampleSize(max)));
+  }
+
+  /**
+   * Constructor to create an image over a segment that already holds its channel planes, for
+   * example a file mapped in memory.
+   *
+   * @param height  height of the image, i.e., rows of the image matrix
+   * @param width   width of the image, i.e., columns of the image matrix
+   * @param max     maximum value of a channel of a pixel in the image
+   * @param planes  1 for a greyscale image, 3 otherwise
+   * @param arena   the arena that owns the segment, closed when the image is released
+   * @param segment the segment holding the channel planes, of byteSize(height, width, max,
+   *                planes) bytes
+   */
+  protected SegmentImage(int height, int width, int max, int planes, Arena arena,
+                         MemorySegment segment) {
+    super(height, width, max);
+    if (planes != 1 && planes != 3) {
+      throw new IllegalArgumentException("An image holds 1 or 3 planes");
+    }
+    this.planeSize = (long) height * width;
+    this.sampleSize = sampleSize(max);
+    this.planes = planes;
+    this.arena = arena;
+    this.segment = segment;
+  }
+
+  /**
+   * Gets the number of bytes a sample takes given the max value of an image.
+   *
+   * @param max maximum value of a channel of a pixel in the image
+   * @return 1, 2 or 4 bytes
+   */
+  static int sampleSize(int max) {
+    if (max <= 0xFF) {
+      return 1;
+    } else if (max <= 0xFFFF) {
+      return 2;
+    }
+    return 4;
+  }
+
+  /**
+   * Gets the number of bytes of the segment holding the channel planes of an image.
+   *
+   * @param height height of the image
+   * @param width  width of the image
+   * @param max    maximum value of a channel of a pixel in the image
+   * @return the size of the segment in bytes
+   */
+  static long byteSize(int height, int width, int max) {
+    return byteSize(height, width, max, 3);
+  }
+
+  /**
+   * Gets the number of bytes of the segment holding the given number of planes of an image.
+   *
+   * @param height height of the image
+   * @param width  width of the image
+   * @param max    maximum value of a channel of a pixel in the image
+   * @param planes 1 for a greyscale image, 3 otherwise
+   * @return the size of the segment in bytes
+   */
+  static long byteSize(int height, int width, int max, int planes) {
+    return (long) planes * height * width * sampleSize(max);
+  }
+
+  /**
+   * Reads a sample of the segment.
+   *
+   * @param index index of the sample in the segment
+   * @return the value of the sample
+   */
+  private int read(long index) {
+    switch (sampleSize) {
+      case 1:
+        return segment.get(ValueLayout.JAVA_BYTE, index) & 0xFF;
+      case 2:
+        return segment.getAtIndex(ValueLayout.JAVA_SHORT, index) & 0xFFFF;
+      default:
+        return segment.getAtIndex(ValueLayout.JAVA_INT, index);
+    }
+  }
+
+  /**
+   * Writes a sample of the segment, the value is clamped to the max value of the image.
+   *
+   * @param index index of the sample in the segment
+   * @param value the value of the sample
+   */
+  private void write(long index, int value) {
+    value = clamp(value);
+    switch (sampleSize) {
+      case 1:
+        segment.set(ValueLayout.JAVA_BYTE, index, (byte) value);
+        break;
+      case 2:
+        segment.setAtIndex(ValueLayout.JAVA_SHORT, index, (short) value);
+        break;
+      default:
+        segment.setAtIndex(ValueLayout.JAVA_INT, index, value);
+    }
+  }
+
+  /**
+   * Gets the index of a pixel of a channel plane in the segment.
+   *
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @param x       representing the row
+   * @param y       representing the column
+   * @return the index in the segment
+   */
+  private long index(int channel, int x, int y) {
+    checkBounds(x, y);
+    return offset(channel) + (long) x * width + y;
+  }
+
+  /**
+   * Gets the index of the first sample of a channel plane in the segment, every channel of a
+   * greyscale image reads the one plane.
+   *
+   * @param channel the channel, 0 for red, 1 for green and 2 for blue
+   * @return the index in the segment
+   */
+  private long offset(int channel) {
+    return planes == 1 ? 0 : channel * planeSize;
+  }
+
+  @Override
+  int planes() {
+    return planes;
+  }
+
+  @Override
+  MemorySegment plane(Channel channel) {
+    long planeBytes = planeSize * sampleSize;
+    return segment.asSlice(offset(channel.ordinal()) * sampleSize, planeBytes);
+  }
+
+  @Override
+  boolean copyPlane(Channel channel, Image source, int from, int to) {
+    // A single channel of a greyscale image cannot be written without the others
+    return planes == 3 && super.copyPlane(channel, source, from, to);
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return ImageStorage.OFF_HEAP;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return read(index(0, x, y));
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return read(index(1, x, y));
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return read(index(2, x, y));
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    if (planes == 1) {
+      checkGrey(red, green, blue);
+      modified();
+      write(index(0, x, y), red);
+      return;
+    }
+    modified();
+    write(index(0, x, y), red);
+    write(index(1, x, y), green);
+    write(index(2, x, y), blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    long offset = (long) x * width;
+    long greenOffset = offset(1) + offset;
+    long blueOffset = offset(2) + offset;
+    if (sampleSize == 4) {
+      MemorySegment.copy(segment, ValueLayout.JAVA_INT, offset * 4, red, 0, width);
+      MemorySegment.copy(segment, ValueLayout.JAVA_INT, greenOffset * 4, green, 0, width);
+      MemorySegment.copy(segment, ValueLayout.JAVA_INT, blueOffset * 4, blue, 0, width);
+      return;
+    }
+    for (int y = 0; y < width; y++) {
+      red[y] = read(offset + y);
+      green[y] = read(greenOffset + y);
+      blue[y] = read(blueOffset + y);
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    long offset = (long) x * width;
+    if (planes == 1) {
+      // A grey row is usually written from one buffer passed for every channel
+      if (red != green || green != blue) {
+        for (int y = 0; y < width; y++) {
+          checkGrey(red[y], green[y], blue[y]);
+        }
+      }
+      modified();
+      for (int y = 0; y < width; y++) {
+        write(offset + y, red[y]);
+      }
+      return;
+    }
+    modified();
+    for (int y = 0; y < width; y++) {
+      write(offset + y, red[y]);
+      write(planeSize + offset + y, green[y]);
+      write(2 * planeSize + offset + y, blue[y]);
+    }
+  }
+
+  @Override
+  protected void free() {
+    arena.close();
+  }
+}
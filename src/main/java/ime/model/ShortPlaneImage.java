@@ -0,0 +1,107 @@
+package ime.model;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Implementation of Image for images whose max value fits in 16 bits.
+ * The pixels are stored as three short planes, one per channel, laid out row after row, so an
+ * image costs six bytes per pixel.
+ */
+class ShortPlaneImage extends AbstractImage {
+  private final short[] red;
+  private final short[] green;
+  private final short[] blue;
+
+  /**
+   * Constructor to create a 16-bit image.
+   *
+   * @param height height of the image, i.e., rows of the image matrix
+   * @param width  width of the image, i.e., columns of the image matrix
+   * @param max    maximum value of a channel of a pixel in the image, at most 65535
+   */
+  public ShortPlaneImage(int height, int width, int max) {
+    super(height, width, max);
+    if (max > 0xFFFF) {
+      throw new IllegalArgumentException("Max value of a 16-bit image can be at most 65535");
+    }
+    this.red = new short[height * width];
+    this.green = new short[height * width];
+    this.blue = new short[height * width];
+  }
+
+  /**
+   * Gets the index of a pixel in the channel planes.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the index in the planes
+   */
+  private int index(int x, int y) {
+    checkBounds(x, y);
+    return x * width + y;
+  }
+
+  @Override
+  MemorySegment plane(Channel channel) {
+    switch (channel) {
+      case RED:
+        return MemorySegment.ofArray(red);
+      case GREEN:
+        return MemorySegment.ofArray(green);
+      default:
+        return MemorySegment.ofArray(blue);
+    }
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return ImageStorage.HEAP;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return this.red[index(x, y)] & 0xFFFF;
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return this.green[index(x, y)] & 0xFFFF;
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return this.blue[index(x, y)] & 0xFFFF;
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    modified();
+    int index = index(x, y);
+    this.red[index] = (short) clamp(red);
+    this.green[index] = (short) clamp(green);
+    this.blue[index] = (short) clamp(blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      red[y] = this.red[offset + y] & 0xFFFF;
+      green[y] = this.green[offset + y] & 0xFFFF;
+      blue[y] = this.blue[offset + y] & 0xFFFF;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    modified();
+    checkRow(x);
+    int offset = x * width;
+    for (int y = 0; y < width; y++) {
+      this.red[offset + y] = (short) clamp(red[y]);
+      this.green[offset + y] = (short) clamp(green[y]);
+      this.blue[offset + y] = (short) clamp(blue[y]);
+    }
+  }
+}
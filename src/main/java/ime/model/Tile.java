@@ -0,0 +1,196 @@
+package ime.model;
+
+/**
+ * A rectangular region of an image loaded into channel buffers together with a halo of pixels
+ * around it, so that a filter can process the region while reading the neighbours of its pixels
+ * without going back to the image. Pixels of the halo that fall outside of the image are given
+ * by the edge mode of the tile, 0 by default.
+ * The buffers are laid out row after row, each row holding the halo on both of its sides.
+ */
+class Tile {
+  private final int halo;
+  private final EdgeMode edges;
+  private final int stride;
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+  private int row;
+  private int column;
+  private int height;
+  private int width;
+
+  /**
+   * Constructs a tile whose buffers can hold regions up to the given size.
+   *
+   * @param maxHeight the largest height of a region
+   * @param maxWidth  the largest width of a region
+   * @param halo      number of pixels loaded around the region on each side
+   */
+  public Tile(int maxHeight, int maxWidth, int halo) {
+    this(maxHeight, maxWidth, halo, EdgeMode.ZERO);
+  }
+
+  /**
+   * Constructs a tile whose buffers can hold regions up to the given size, with the pixels of the
+   * halo outside of the image given by an edge mode.
+   *
+   * @param maxHeight the largest height of a region
+   * @param maxWidth  the largest width of a region
+   * @param halo      number of pixels loaded around the region on each side
+   * @param edges     how the pixels of the halo outside of the image are filled
+   */
+  public Tile(int maxHeight, int maxWidth, int halo, EdgeMode edges) {
+    this.halo = halo;
+    this.edges = edges;
+    this.stride = maxWidth + 2 * halo;
+    int size = (maxHeight + 2 * halo) * stride;
+    this.red = new int[size];
+    this.green = new int[size];
+    this.blue = new int[size];
+  }
+
+  /**
+   * Loads a region of an image and its halo into the buffers of the tile.
+   *
+   * @param image  the image to be read
+   * @param row    first row of the region in the image
+   * @param column first column of the region in the image
+   * @param height number of rows of the region
+   * @param width  number of columns of the region
+   */
+  public void load(TiledImage image, int row, int column, int height, int width) {
+    this.row = row;
+    this.column = column;
+    this.height = height;
+    this.width = width;
+    image.getRegion(row - halo, column - halo, height + 2 * halo, width + 2 * halo,
+            red, green, blue, stride);
+    if (edges != EdgeMode.ZERO) {
+      fillEdges(image);
+    }
+  }
+
+  /**
+   * Fills the pixels of the halo that are outside of the image with the pixels inside of the
+   * image given by the edge mode. Only tiles on the borders of the image have such pixels.
+   *
+   * @param image the image the region is loaded from
+   */
+  private void fillEdges(TiledImage image) {
+    int imageHeight = image.getHeight();
+    int imageWidth = image.getWidth();
+    if (row - halo >= 0 && column - halo >= 0 && row + height + halo <= imageHeight
+            && column + width + halo <= imageWidth) {
+      return;
+    }
+    for (int x = -halo; x < height + halo; x++) {
+      int imageRow = row + x;
+      boolean rowInside = imageRow >= 0 && imageRow < imageHeight;
+      for (int y = -halo; y < width + halo; y++) {
+        int imageColumn = column + y;
+        if (rowInside && imageColumn >= 0 && imageColumn < imageWidth) {
+          continue;
+        }
+        int mappedRow = edges.map(imageRow, imageHeight);
+        int mappedColumn = edges.map(imageColumn, imageWidth);
+        int index = index(x, y);
+        red[index] = image.getRed(mappedRow, mappedColumn);
+        green[index] = image.getGreen(mappedRow, mappedColumn);
+        blue[index] = image.getBlue(mappedRow, mappedColumn);
+      }
+    }
+  }
+
+  /**
+   * Gets the first row of the region in the image.
+   *
+   * @return the row
+   */
+  public int getRow() {
+    return row;
+  }
+
+  /**
+   * Gets the first column of the region in the image.
+   *
+   * @return the column
+   */
+  public int getColumn() {
+    return column;
+  }
+
+  /**
+   * Gets the number of rows of the region.
+   *
+   * @return the height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the number of columns of the region.
+   *
+   * @return the width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the number of pixels loaded around the region on each side.
+   *
+   * @return the halo
+   */
+  public int getHalo() {
+    return halo;
+  }
+
+  /**
+   * Gets the distance between two vertically adjacent pixels in the buffers.
+   *
+   * @return the length of a row of the buffers
+   */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Gets the index of a pixel in the buffers, the pixel is given relative to the region and may
+   * lie in the halo.
+   *
+   * @param x row relative to the region, from -halo to height + halo - 1
+   * @param y column relative to the region, from -halo to width + halo - 1
+   * @return the index in the buffers
+   */
+  public int index(int x, int y) {
+    return (x + halo) * stride + y + halo;
+  }
+
+  /**
+   * Gets the buffer of the red values of the region and its halo.
+   *
+   * @return the red buffer
+   */
+  public int[] getRed() {
+    return red;
+  }
+
+  /**
+   * Gets the buffer of the green values of the region and its halo.
+   *
+   * @return the green buffer
+   */
+  public int[] getGreen() {
+    return green;
+  }
+
+  /**
+   * Gets the buffer of the blue values of the region and its halo.
+   *
+   * @return the blue buffer
+   */
+  public int[] getBlue() {
+    return blue;
+  }
+}
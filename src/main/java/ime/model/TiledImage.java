@@ -0,0 +1,241 @@
+package ime.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of Image that stores its pixels in square tiles of a fixed size instead of row
+ * after row, each tile being a small image on the heap. Pixels that are close in the image are
+ * close in memory, so filters that read a neighbourhood around each pixel can work tile by tile
+ * and stay in the cache even for very large images.
+ */
+class TiledImage extends AbstractImage {
+  static final int DEFAULT_TILE_SIZE = 256;
+
+  private final int tileSize;
+  private final int tileRows;
+  private final int tileColumns;
+  private final Image[] tiles;
+
+  /**
+   * Constructor to create a tiled image.
+   *
+   * @param height   height of the image, i.e., rows of the image matrix
+   * @param width    width of the image, i.e., columns of the image matrix
+   * @param max      maximum value of a channel of a pixel in the image
+   * @param tileSize height and width of the tiles
+   */
+  public TiledImage(int height, int width, int max, int tileSize) {
+    super(height, width, max);
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Size of the tiles should be positive");
+    }
+    this.tileSize = tileSize;
+    this.tileRows = (height + tileSize - 1) / tileSize;
+    this.tileColumns = (width + tileSize - 1) / tileSize;
+    this.tiles = new Image[tileRows * tileColumns];
+    for (int i = 0; i < tileRows; i++) {
+      for (int j = 0; j < tileColumns; j++) {
+        tiles[i * tileColumns + j] = ImageStorage.HEAP.create(
+                Math.min(tileSize, height - i * tileSize),
+                Math.min(tileSize, width - j * tileSize), max);
+      }
+    }
+  }
+
+  /**
+   * Gets the height and width of the tiles, tiles on the last row and column may be smaller.
+   *
+   * @return the size of the tiles
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Gets the tile at a position of the grid of tiles.
+   *
+   * @param tileRow    row of the tile in the grid
+   * @param tileColumn column of the tile in the grid
+   * @return the tile
+   */
+  Image getTile(int tileRow, int tileColumn) {
+    return tiles[tileRow * tileColumns + tileColumn];
+  }
+
+  /**
+   * Gets the tile holding a pixel.
+   *
+   * @param x representing the row
+   * @param y representing the column
+   * @return the tile
+   */
+  private Image tileOf(int x, int y) {
+    checkBounds(x, y);
+    return getTile(x / tileSize, y / tileSize);
+  }
+
+  @Override
+  public ImageStorage getStorage() {
+    return ImageStorage.TILED;
+  }
+
+  @Override
+  public int getRed(int x, int y) {
+    return tileOf(x, y).getRed(x % tileSize, y % tileSize);
+  }
+
+  @Override
+  public int getGreen(int x, int y) {
+    return tileOf(x, y).getGreen(x % tileSize, y % tileSize);
+  }
+
+  @Override
+  public int getBlue(int x, int y) {
+    return tileOf(x, y).getBlue(x % tileSize, y % tileSize);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int red, int green, int blue) {
+    modified();
+    tileOf(x, y).setRGB(x % tileSize, y % tileSize, red, green, blue);
+  }
+
+  @Override
+  public void getRow(int x, int[] red, int[] green, int[] blue) {
+    checkRow(x);
+    int[] tileRed = new int[tileSize];
+    int[] tileGreen = new int[tileSize];
+    int[] tileBlue = new int[tileSize];
+    for (int j = 0; j < tileColumns; j++) {
+      Image tile = getTile(x / tileSize, j);
+      tile.getRow(x % tileSize, tileRed, tileGreen, tileBlue);
+      System.arraycopy(tileRed, 0, red, j * tileSize, tile.getWidth());
+      System.arraycopy(tileGreen, 0, green, j * tileSize, tile.getWidth());
+      System.arraycopy(tileBlue, 0, blue, j * tileSize, tile.getWidth());
+    }
+  }
+
+  @Override
+  public void setRow(int x, int[] red, int[] green, int[] blue) {
+    modified();
+    checkRow(x);
+    int[] tileRed = new int[tileSize];
+    int[] tileGreen = new int[tileSize];
+    int[] tileBlue = new int[tileSize];
+    for (int j = 0; j < tileColumns; j++) {
+      Image tile = getTile(x / tileSize, j);
+      System.arraycopy(red, j * tileSize, tileRed, 0, tile.getWidth());
+      System.arraycopy(green, j * tileSize, tileGreen, 0, tile.getWidth());
+      System.arraycopy(blue, j * tileSize, tileBlue, 0, tile.getWidth());
+      tile.setRow(x % tileSize, tileRed, tileGreen, tileBlue);
+    }
+  }
+
+  /**
+   * Copies a rectangular region of the image into channel buffers laid out row after row, the
+   * region may reach outside of the image where the buffers are filled with 0.
+   *
+   * @param row    first row of the region, may be negative
+   * @param column first column of the region, may be negative
+   * @param height number of rows of the region
+   * @param width  number of columns of the region
+   * @param red    buffer that receives the red values
+   * @param green  buffer that receives the green values
+   * @param blue   buffer that receives the blue values
+   * @param stride distance between the starts of two rows in the buffers
+   */
+  void getRegion(int row, int column, int height, int width, int[] red, int[] green,
+                 int[] blue, int stride) {
+    int[] tileRed = new int[tileSize];
+    int[] tileGreen = new int[tileSize];
+    int[] tileBlue = new int[tileSize];
+    int firstColumn = Math.max(column, 0);
+    int lastColumn = Math.min(column + width, this.width);
+    for (int x = 0; x < height; x++) {
+      int offset = x * stride;
+      int imageRow = row + x;
+      if (imageRow < 0 || imageRow >= this.height || firstColumn >= lastColumn) {
+        Arrays.fill(red, offset, offset + width, 0);
+        Arrays.fill(green, offset, offset + width, 0);
+        Arrays.fill(blue, offset, offset + width, 0);
+        continue;
+      }
+      Arrays.fill(red, offset, offset + firstColumn - column, 0);
+      Arrays.fill(green, offset, offset + firstColumn - column, 0);
+      Arrays.fill(blue, offset, offset + firstColumn - column, 0);
+      Arrays.fill(red, offset + lastColumn - column, offset + width, 0);
+      Arrays.fill(green, offset + lastColumn - column, offset + width, 0);
+      Arrays.fill(blue, offset + lastColumn - column, offset + width, 0);
+
+      for (int y = firstColumn; y < lastColumn; ) {
+        Image tile = getTile(imageRow / tileSize, y / tileSize);
+        int tileColumn = y % tileSize;
+        int count = Math.min(tile.getWidth() - tileColumn, lastColumn - y);
+        tile.getRow(imageRow % tileSize, tileRed, tileGreen, tileBlue);
+        System.arraycopy(tileRed, tileColumn, red, offset + y - column, count);
+        System.arraycopy(tileGreen, tileColumn, green, offset + y - column, count);
+        System.arraycopy(tileBlue, tileColumn, blue, offset + y - column, count);
+        y += count;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of rows of the grid of tiles.
+   *
+   * @return the rows of tiles
+   */
+  int getTileRows() {
+    return tileRows;
+  }
+
+  /**
+   * Gets the tiles of the image one after the other, each loaded with a halo of its neighbouring
+   * pixels. The same Tile is reused for every tile, so its buffers are only valid until the next
+   * tile is requested.
+   *
+   * @param halo number of pixels loaded around each tile on each side
+   * @return the tiles of the image in row major order
+   */
+  public Iterable<Tile> tiles(int halo) {
+    return tiles(halo, EdgeMode.ZERO, 0, getTileRows());
+  }
+
+  /**
+   * Gets the tiles of a band of rows of the grid one after the other, each loaded with a halo of
+   * its neighbouring pixels. Every call has its own Tile, so bands can be iterated by several
+   * threads at once.
+   *
+   * @param halo    number of pixels loaded around each tile on each side
+   * @param edges   how the pixels of the halo outside of the image are filled
+   * @param fromRow first row of tiles of the band
+   * @param toRow   row of tiles after the last one of the band
+   * @return the tiles of the band in row major order
+   */
+  Iterable<Tile> tiles(int halo, EdgeMode edges, int fromRow, int toRow) {
+    return () -> new Iterator<>() {
+      private final Tile tile = new Tile(tileSize, tileSize, halo, edges);
+      private int next = fromRow * tileColumns;
+
+      @Override
+      public boolean hasNext() {
+        return next < toRow * tileColumns;
+      }
+
+      @Override
+      public Tile next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Image current = tiles[next];
+        int row = (next / tileColumns) * tileSize;
+        int column = (next % tileColumns) * tileSize;
+        tile.load(TiledImage.this, row, column, current.getHeight(), current.getWidth());
+        next++;
+        return tile;
+      }
+    };
+  }
+}
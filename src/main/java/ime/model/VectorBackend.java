@@ -0,0 +1,130 @@
+package ime.model;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Filter backend computing as many pixels per instruction as the doubles the widest vectors of
+ * the processor hold, with the Vector API of the jdk.incubator.vector module. The lanes hold
+ * consecutive pixels of a row and every lane adds the products in the order of the scalar
+ * backend, without fused multiply adds, so the sums are the same as those of the scalar backend.
+ * The sums are rounded one lane at a time with Math.round, and the pixels at the end of a row
+ * that do not fill a vector are left to the scalar backend.
+ */
+class VectorBackend extends FilterBackend<double[]> {
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+  // Integers with as many lanes as the doubles, so that a load converts into one double vector
+  private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class,
+          VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+  @Override
+  public String getName() {
+    return "vector";
+  }
+
+  /**
+   * Loads consecutive values of a channel as doubles.
+   *
+   * @param values the values of the channel
+   * @param index  index of the first value
+   * @return a vector of the values
+   */
+  private static DoubleVector load(int[] values, int index) {
+    return (DoubleVector) IntVector.fromArray(INTS, values, index)
+            .convertShape(VectorOperators.I2D, DOUBLES, 0);
+  }
+
+  /**
+   * Rounds the lanes of a vector into consecutive values of a channel.
+   *
+   * @param sums   the vector of sums
+   * @param lanes  buffer of a vector of doubles
+   * @param out    the values of the channel
+   * @param index  index of the first value
+   */
+  private static void round(DoubleVector sums, double[] lanes, int[] out, int index) {
+    sums.intoArray(lanes, 0);
+    for (int l = 0; l < lanes.length; l++) {
+      out[index + l] = (int) Math.round(lanes[l]);
+    }
+  }
+
+  @Override
+  double[][] newRows(int count, int length) {
+    return new double[count][length];
+  }
+
+  @Override
+  void convolve(Weights weights, int[][] rows, int[] offsets, int width, int[] out) {
+    double[][] kernel = weights.values();
+    int size = kernel.length;
+    double[] lanes = new double[DOUBLES.length()];
+    int bound = DOUBLES.loopBound(width);
+    for (int y = 0; y < bound; y += DOUBLES.length()) {
+      DoubleVector sum = DoubleVector.zero(DOUBLES);
+      for (int i = 0; i < size; i++) {
+        double[] kernelRow = kernel[i];
+        int[] row = rows[i];
+        int offset = offsets[i] + y;
+        for (int j = 0; j < size; j++) {
+          sum = sum.add(load(row, offset + j).mul(kernelRow[j]));
+        }
+      }
+      round(sum, lanes, out, y);
+    }
+    ScalarBackend.convolve(kernel, rows, offsets, bound, width, out);
+  }
+
+  @Override
+  void filterRow(Weights weights, int[] channel, int offset, int width, double[] filtered,
+                 int filteredOffset) {
+    double[] row = weights.values()[0];
+    int bound = DOUBLES.loopBound(width);
+    for (int y = 0; y < bound; y += DOUBLES.length()) {
+      DoubleVector sum = DoubleVector.zero(DOUBLES);
+      for (int j = 0; j < row.length; j++) {
+        sum = sum.add(load(channel, offset + y + j).mul(row[j]));
+      }
+      sum.intoArray(filtered, filteredOffset + y);
+    }
+    ScalarBackend.filterRow(row, channel, offset, bound, width, filtered, filteredOffset);
+  }
+
+  @Override
+  void combine(Weights weights, double[][] rows, int[] offsets, int width, int[] out) {
+    double[] column = weights.values()[0];
+    double[] lanes = new double[DOUBLES.length()];
+    int bound = DOUBLES.loopBound(width);
+    for (int y = 0; y < bound; y += DOUBLES.length()) {
+      DoubleVector sum = DoubleVector.zero(DOUBLES);
+      for (int i = 0; i < column.length; i++) {
+        sum = sum.add(DoubleVector.fromArray(DOUBLES, rows[i], offsets[i] + y).mul(column[i]));
+      }
+      round(sum, lanes, out, y);
+    }
+    ScalarBackend.combine(column, rows, offsets, bound, width, out);
+  }
+
+  @Override
+  void transform(Weights weights, int[] red, int[] green, int[] blue, int width) {
+    double[][] matrix = weights.values();
+    double[] redRow = matrix[0];
+    double[] greenRow = matrix[1];
+    double[] blueRow = matrix[2];
+    double[] lanes = new double[DOUBLES.length()];
+    int bound = DOUBLES.loopBound(width);
+    for (int j = 0; j < bound; j += DOUBLES.length()) {
+      DoubleVector r = load(red, j);
+      DoubleVector g = load(green, j);
+      DoubleVector b = load(blue, j);
+
+      round(r.mul(redRow[0]).add(g.mul(redRow[1])).add(b.mul(redRow[2])), lanes, red, j);
+      round(r.mul(greenRow[0]).add(g.mul(greenRow[1])).add(b.mul(greenRow[2])), lanes, green, j);
+      round(r.mul(blueRow[0]).add(g.mul(blueRow[1])).add(b.mul(blueRow[2])), lanes, blue, j);
+    }
+    ScalarBackend.transform(matrix, red, green, blue, bound, width);
+  }
+}
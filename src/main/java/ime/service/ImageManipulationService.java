@@ -1,6 +1,9 @@
 package ime.service;
 
+import ime.model.DitherMode;
+import ime.model.EdgeMode;
 import ime.model.MIME;
+import ime.model.MatrixFilter;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -11,6 +14,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -52,6 +57,23 @@ public class ImageManipulationService {
     }
   }
 
+  public void remove(String imageName) {
+    mimeModel.remove(imageName);
+  }
+
+  public Map<String, Long> getRegistryMetrics() {
+    return mimeModel.getRegistryMetrics();
+  }
+
+  // Computed once per image, repeated calls are served from the image
+  public Map<String, long[]> getHistogram(String imageName) {
+    return mimeModel.getHistogram(imageName);
+  }
+
+  public Map<String, Map<String, Double>> getStatistics(String imageName) {
+    return mimeModel.getStatistics(imageName);
+  }
+
   public String brighten(String imageName, int scale) {
     String resultName = imageName + "-brightened";
     mimeModel.brighten(scale, imageName, resultName);
@@ -115,6 +137,62 @@ public class ImageManipulationService {
     return resultName;
   }
 
+  public String boxBlur(String imageName, int radius) {
+    String resultName = imageName + "-box-blurred-" + radius;
+    mimeModel.boxBlur(imageName, resultName, radius);
+    return resultName;
+  }
+
+  public String gaussianBlur(String imageName, double sigma) {
+    String resultName = imageName + "-gaussian-blurred-" + sigma;
+    mimeModel.gaussianBlur(imageName, resultName, sigma);
+    return resultName;
+  }
+
+  public String convolve(String imageName, String kernel, String edges) {
+    double[][] values = parseKernel(kernel);
+    EdgeMode edgeMode = EdgeMode.fromName(edges);
+    // The same kernel and edges applied on the same image give the same name
+    String resultName = imageName + "-convolved-" + kernelHash(values) + "-"
+            + edgeMode.name().toLowerCase(Locale.ROOT);
+    mimeModel.convolve(imageName, resultName, values, edgeMode);
+    return resultName;
+  }
+
+  // Rows separated by semicolons of values separated by commas, such as "0,-1,0;-1,5,-1;0,-1,0"
+  private static double[][] parseKernel(String kernel) {
+    String[] rows = kernel.trim().split("\\s*;\\s*");
+    if (rows.length > MatrixFilter.MAX_SIZE) {
+      throw new IllegalArgumentException("Kernels are at most " + MatrixFilter.MAX_SIZE
+              + " rows and columns");
+    }
+    double[][] values = new double[rows.length][];
+    try {
+      for (int i = 0; i < rows.length; i++) {
+        String[] entries = rows[i].trim().split("\\s*,\\s*");
+        values[i] = new double[entries.length];
+        for (int j = 0; j < entries.length; j++) {
+          values[i][j] = Double.parseDouble(entries[j]);
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid kernel: " + kernel);
+    }
+    return values;
+  }
+
+  // 64 bits of the shape and the entries of a kernel, as hexadecimal digits
+  private static String kernelHash(double[][] kernel) {
+    long hash = kernel.length;
+    for (double[] row : kernel) {
+      hash = 31 * hash + row.length;
+      for (double value : row) {
+        hash = 31 * hash + Double.doubleToLongBits(value);
+      }
+    }
+    return Long.toHexString(hash);
+  }
+
   public String sharpen(String imageName) {
     String resultName = imageName + "-sharpened";
     mimeModel.sharpen(imageName, resultName);
@@ -132,4 +210,13 @@ public class ImageManipulationService {
     mimeModel.dither(imageName, resultName);
     return resultName;
   }
+
+  public String dither(String imageName, String mode) {
+    DitherMode ditherMode = DitherMode.fromName(mode);
+    // Named after the parsed mode, so that every spelling of a mode gives the same name
+    String resultName = imageName + "-dithered-"
+            + ditherMode.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    mimeModel.dither(imageName, resultName, ditherMode);
+    return resultName;
+  }
 }
\ No newline at end of file
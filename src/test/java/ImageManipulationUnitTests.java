@@ -11,9 +11,15 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import ime.ImeApplication;
 import ime.controller.ImageManipulationController;
+import ime.model.DitherMode;
+import ime.model.EdgeMode;
 import ime.model.MIME;
 import ime.service.ImageLoader;
 import ime.service.ImageManipulationService;
@@ -105,6 +111,64 @@ public class ImageManipulationUnitTests {
             .andExpect(content().string("An IO error occurred: Error saving image"));
   }
 
+  @Test
+  public void testRemoveImage() throws Exception {
+    mockMvc.perform(delete("/api/remove")
+                    .param("imageName", "test-image"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Image removed: test-image"));
+
+    verify(imageService).remove("test-image");
+  }
+
+  @Test
+  public void testRegistryMetrics() throws Exception {
+    Map<String, Long> metrics = new LinkedHashMap<>();
+    metrics.put("hits", 3L);
+    metrics.put("spills", 1L);
+    when(imageService.getRegistryMetrics()).thenReturn(metrics);
+
+    mockMvc.perform(get("/api/metrics"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.hits").value(3))
+            .andExpect(jsonPath("$.spills").value(1));
+
+    verify(imageService).getRegistryMetrics();
+  }
+
+  @Test
+  public void testHistogram() throws Exception {
+    Map<String, long[]> histogram = new LinkedHashMap<>();
+    histogram.put("red", new long[]{2, 0, 1});
+    histogram.put("luma", new long[]{1, 2, 0});
+    when(imageService.getHistogram(anyString())).thenReturn(histogram);
+
+    mockMvc.perform(get("/api/histogram")
+                    .param("imageName", "test-image"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.red[0]").value(2))
+            .andExpect(jsonPath("$.luma[1]").value(2));
+
+    verify(imageService).getHistogram("test-image");
+  }
+
+  @Test
+  public void testStatistics() throws Exception {
+    Map<String, Double> red = new LinkedHashMap<>();
+    red.put("min", 0.0);
+    red.put("mean", 127.5);
+    Map<String, Map<String, Double>> statistics = new LinkedHashMap<>();
+    statistics.put("red", red);
+    when(imageService.getStatistics(anyString())).thenReturn(statistics);
+
+    mockMvc.perform(get("/api/stats")
+                    .param("imageName", "test-image"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.red.mean").value(127.5));
+
+    verify(imageService).getStatistics("test-image");
+  }
+
   @Test
   public void testBrightenImage() throws Exception {
     when(imageService.brighten(anyString(), anyInt())).thenReturn("brightened-image");
@@ -206,6 +270,46 @@ public class ImageManipulationUnitTests {
     verify(imageService).sepia("test-image");
   }
 
+  @Test
+  public void testBoxBlurImage() throws Exception {
+    when(imageService.boxBlur(anyString(), anyInt())).thenReturn("box-blurred-image");
+
+    mockMvc.perform(post("/api/box-blur")
+                    .param("imageName", "test-image")
+                    .param("radius", "25"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Image box blurred and saved as: box-blurred-image"));
+
+    verify(imageService).boxBlur("test-image", 25);
+  }
+
+  @Test
+  public void testGaussianBlurImage() throws Exception {
+    when(imageService.gaussianBlur(anyString(), anyDouble())).thenReturn("gaussian-image");
+
+    mockMvc.perform(post("/api/gaussian-blur")
+                    .param("imageName", "test-image")
+                    .param("sigma", "12.5"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Image gaussian blurred and saved as: gaussian-image"));
+
+    verify(imageService).gaussianBlur("test-image", 12.5);
+  }
+
+  @Test
+  public void testConvolveImage() throws Exception {
+    when(imageService.convolve(anyString(), anyString(), anyString()))
+            .thenReturn("convolved-image");
+
+    mockMvc.perform(post("/api/convolve")
+                    .param("imageName", "test-image")
+                    .param("kernel", "0,-1,0;-1,5,-1;0,-1,0"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Kernel applied and saved as: convolved-image"));
+
+    verify(imageService).convolve("test-image", "0,-1,0;-1,5,-1;0,-1,0", "zero");
+  }
+
   @Test
   public void testDitherImage() throws Exception {
     when(imageService.dither(anyString())).thenReturn("dithered-image");
@@ -218,6 +322,19 @@ public class ImageManipulationUnitTests {
     verify(imageService).dither("test-image");
   }
 
+  @Test
+  public void testDitherImageWithMode() throws Exception {
+    when(imageService.dither(anyString(), anyString())).thenReturn("dithered-bayer-image");
+
+    mockMvc.perform(post("/api/dither")
+                    .param("imageName", "test-image")
+                    .param("mode", "bayer"))
+            .andExpect(status().isOk())
+            .andExpect(content().string("Image dithered and saved as: dithered-bayer-image"));
+
+    verify(imageService).dither("test-image", "bayer");
+  }
+
   // Service Tests
 
   @Test
@@ -315,6 +432,60 @@ public class ImageManipulationUnitTests {
     verify(mimeModel).sepia("test-image", "test-image-sepia");
   }
 
+  @Test
+  public void testBoxBlurService() {
+    String result = realImageService.boxBlur("test-image", 25);
+
+    assertEquals("test-image-box-blurred-25", result);
+    verify(mimeModel).boxBlur("test-image", "test-image-box-blurred-25", 25);
+  }
+
+  @Test
+  public void testGaussianBlurService() {
+    String result = realImageService.gaussianBlur("test-image", 12.5);
+
+    assertEquals("test-image-gaussian-blurred-12.5", result);
+    verify(mimeModel).gaussianBlur("test-image", "test-image-gaussian-blurred-12.5", 12.5);
+  }
+
+  @Test
+  public void testConvolveService() {
+    String result = realImageService.convolve("test-image", " 0, -1, 0; -1, 5, -1; 0, -1, 0 ",
+            "mirror");
+
+    assertTrue(result.startsWith("test-image-convolved-"));
+    assertTrue(result.endsWith("-mirror"));
+    double[][] expected = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+    verify(mimeModel).convolve(eq("test-image"), eq(result),
+            argThat(kernel -> Arrays.deepEquals(expected, kernel)), eq(EdgeMode.MIRROR));
+    assertThrows(IllegalArgumentException.class,
+            () -> realImageService.convolve("test-image", "1,2;x,4", "zero"));
+
+    // The name follows from the kernel and the edges
+    assertEquals(result, realImageService.convolve("test-image", "0,-1,0;-1,5,-1;0,-1,0",
+            "mirror"));
+    assertNotEquals(result, realImageService.convolve("test-image", "0,-1,0;-1,5,-1;0,-1,0",
+            "wrap"));
+    assertNotEquals(result, realImageService.convolve("test-image", "0,-1,0;-1,6,-1;0,-1,0",
+            "mirror"));
+
+    String tooLarge = String.join(";", Collections.nCopies(129, "0"));
+    assertThrows(IllegalArgumentException.class,
+            () -> realImageService.convolve("test-image", tooLarge, "zero"));
+  }
+
+  @Test
+  public void testHistogramAndStatisticsService() {
+    Map<String, long[]> histogram = new LinkedHashMap<>();
+    histogram.put("red", new long[]{1});
+    when(mimeModel.getHistogram("test-image")).thenReturn(histogram);
+    Map<String, Map<String, Double>> statistics = new LinkedHashMap<>();
+    when(mimeModel.getStatistics("test-image")).thenReturn(statistics);
+
+    assertEquals(histogram, realImageService.getHistogram("test-image"));
+    assertEquals(statistics, realImageService.getStatistics("test-image"));
+  }
+
   @Test
   public void testDitherService() {
     String result = realImageService.dither("test-image");
@@ -322,4 +493,16 @@ public class ImageManipulationUnitTests {
     assertEquals("test-image-dithered", result);
     verify(mimeModel).dither("test-image", "test-image-dithered");
   }
+
+  @Test
+  public void testDitherServiceWithMode() {
+    String result = realImageService.dither("test-image", "blue-noise");
+
+    assertEquals("test-image-dithered-blue-noise", result);
+    verify(mimeModel).dither("test-image", "test-image-dithered-blue-noise",
+            DitherMode.BLUE_NOISE);
+    assertEquals(result, realImageService.dither("test-image", " Blue-Noise "));
+    assertThrows(IllegalArgumentException.class,
+            () -> realImageService.dither("test-image", "halftone"));
+  }
 }
\ No newline at end of file
@@ -0,0 +1,1185 @@
+package ime.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test class for the storages, filters, registry and evaluation of the image model. The test
+ * image is generated, so the tests need no image files.
+ */
+public class ImageModelTest {
+  private static final int HEIGHT = 24;
+  private static final int WIDTH = 32;
+  private static final int MAX = 255;
+
+  private MIMEImp ime;
+  private Image image;
+
+  @BeforeEach
+  public void setUp() {
+    ime = new MIMEImp();
+    ime.readData(imageData(), "test");
+    image = ime.getImage("test");
+  }
+
+  /**
+   * Gets the image data of the test image, as read by readData: the width, the height, the max
+   * value and the channels of every pixel row after row.
+   *
+   * @return the image data
+   */
+  private static InputStream imageData() {
+    StringBuilder data = new StringBuilder();
+    data.append(WIDTH).append(' ').append(HEIGHT).append(System.lineSeparator())
+            .append(MAX).append(System.lineSeparator());
+    for (int i = 0; i < HEIGHT; i++) {
+      for (int j = 0; j < WIDTH; j++) {
+        data.append((i * 37 + j * 11) % (MAX + 1)).append(' ')
+                .append((i * j * 5 + 60) % (MAX + 1)).append(' ')
+                .append((200 - i * 3 + j * 7) % (MAX + 1)).append(System.lineSeparator());
+      }
+    }
+    return new ByteArrayInputStream(data.toString().getBytes());
+  }
+
+  /**
+   * Gets an image of a model and releases it right away, as a request reading it would. The
+   * image stays readable on the heap for the assertions.
+   *
+   * @param model     the model
+   * @param imageName name of the image
+   * @return the image
+   */
+  private static Image use(MIMEImp model, String imageName) {
+    Image image = model.getImage(imageName);
+    image.release();
+    return image;
+  }
+
+  /**
+   * Reads an image from the image data written by writeData.
+   *
+   * @param imageData output stream of image data
+   * @return a new Image that is created from the data
+   */
+  private static Image readImage(OutputStream imageData) {
+    Scanner sc = new Scanner(imageData.toString());
+    int width = sc.nextInt();
+    int height = sc.nextInt();
+    int max = sc.nextInt();
+
+    Image rgbImage = new RGBImage(height, width, max);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        rgbImage.setRGB(i, j, sc.nextInt(), sc.nextInt(), sc.nextInt());
+      }
+    }
+    return rgbImage;
+  }
+
+  @Test
+  public void testPrimitiveChannelAccessors() {
+    int width = image.getWidth();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, red, green, blue);
+      for (int j = 0; j < width; j++) {
+        assertEquals(image.getPixel(i, j).getRed(), image.getRed(i, j));
+        assertEquals(image.getPixel(i, j).getGreen(), image.getGreen(i, j));
+        assertEquals(image.getPixel(i, j).getBlue(), image.getBlue(i, j));
+        assertEquals(image.getRed(i, j), red[j]);
+        assertEquals(image.getGreen(i, j), green[j]);
+        assertEquals(image.getBlue(i, j), blue[j]);
+      }
+    }
+
+    Image copy = new RGBImage(image.getHeight(), width, image.getMax());
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, red, green, blue);
+      copy.setRow(i, red, green, blue);
+    }
+    assertEquals(image, copy);
+
+    copy.setRGB(0, 0, -5, image.getMax() + 5, 0);
+    assertEquals(0, copy.getRed(0, 0));
+    assertEquals(image.getMax(), copy.getGreen(0, 0));
+  }
+
+  @Test
+  public void testViewsCopyOnWrite() {
+    ime.verticalFlip("test", "test-vertical");
+    ime.redGreyscale("test", "test-red");
+    Image vertical = ime.getImage("test-vertical");
+    Image red = ime.getImage("test-red");
+    Image verticalCopy = vertical.materialize();
+    Image redCopy = red.materialize();
+    assertEquals(vertical, verticalCopy);
+    assertEquals(red, redCopy);
+
+    int last = image.getHeight() - 1;
+    int original = image.getRed(last, 0);
+    vertical.setRGB(0, 0, original == 0 ? 1 : 0, 0, 0);
+    red.setRGB(0, 0, 0, 0, 0);
+
+    assertEquals(original, image.getRed(last, 0));
+    assertNotEquals(original, vertical.getRed(0, 0));
+    assertNotEquals(vertical, verticalCopy);
+    for (int i = 1; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        assertEquals(image.getPixel(last - i, j), vertical.getPixel(i, j));
+        assertEquals(image.getRed(i, j), red.getGreen(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testOffHeapStorage() throws IOException {
+    MIMEImp offHeap = new MIMEImp(ImageStorage.OFF_HEAP);
+    offHeap.readData(imageData(), "test");
+    assertEquals(ImageStorage.OFF_HEAP, offHeap.getImage("test").getStorage());
+    assertEquals(image, offHeap.getImage("test"));
+
+    ime.blur("test", "test-blur");
+    ime.sepia("test", "test-sepia");
+    ime.dither("test", "test-dither");
+    offHeap.blur("test", "test-blur");
+    offHeap.sepia("test", "test-sepia");
+    offHeap.dither("test", "test-dither");
+
+    assertEquals(ImageStorage.OFF_HEAP, offHeap.getImage("test-blur").getStorage());
+    assertEquals(ime.getImage("test-blur"), offHeap.getImage("test-blur"));
+    assertEquals(ime.getImage("test-sepia"), offHeap.getImage("test-sepia"));
+    assertEquals(ime.getImage("test-dither"), offHeap.getImage("test-dither"));
+
+    // An image is retained for the caller, removing its name does not free its memory
+    offHeap.sharpen("test", "test-sharpen");
+    ime.sharpen("test", "test-sharpen");
+    Image sharpened = offHeap.getImage("test-sharpen");
+    offHeap.remove("test-sharpen");
+    assertEquals(ime.getImage("test-sharpen"), sharpened);
+    sharpened.release();
+  }
+
+  @Test
+  public void testNamesParseUnderAnyLocale() {
+    Locale locale = Locale.getDefault();
+    // The upper case of i is a dotted capital I under a Turkish locale
+    Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+    try {
+      assertEquals(ImageStorage.TILED, ImageStorage.fromName("tiled"));
+      assertTrue(FilterBackend.fromName("FIXED") instanceof FixedPointBackend);
+      assertEquals(EdgeMode.MIRROR, EdgeMode.fromName("mirror"));
+      assertEquals(DitherMode.FLOYD_STEINBERG, DitherMode.fromName("floyd-steinberg"));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void testStorageFollowsBitDepth() {
+    assertTrue(ImageStorage.HEAP.create(2, 3, 255) instanceof BytePlaneImage);
+    assertTrue(ImageStorage.HEAP.create(2, 3, 256) instanceof ShortPlaneImage);
+    assertTrue(ImageStorage.HEAP.create(2, 3, 65535) instanceof ShortPlaneImage);
+    assertTrue(ImageStorage.HEAP.create(2, 3, 65536) instanceof RGBImage);
+
+    for (int max : new int[]{255, 65535, 70000}) {
+      for (ImageStorage storage : ImageStorage.values()) {
+        Image expected = new RGBImage(2, 3, max);
+        Image received = storage.create(2, 3, max);
+        for (int i = 0; i < 2; i++) {
+          for (int j = 0; j < 3; j++) {
+            expected.setRGB(i, j, max - i, max / (j + 1), i * j);
+            received.setRGB(i, j, max - i, max / (j + 1), i * j);
+          }
+        }
+        received.setRGB(1, 2, max + 1, -1, max);
+        expected.setRGB(1, 2, max, 0, max);
+        assertEquals(expected, received);
+      }
+    }
+  }
+
+  @Test
+  public void testSeparableMatrixFilter() {
+    double[][] gaussian = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+    MatrixFilter blur = new MatrixFilter(gaussian);
+    assertTrue(blur.isSeparable());
+    assertFalse(new MatrixFilter(new double[][]{
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}}).isSeparable());
+
+    double[] factors = {0.25, 0.5, 0.25};
+    assertEquals(blur.apply(image), new MatrixFilter(factors, factors).apply(image));
+
+    // A kernel that is not a product gives the same result through the direct sums
+    double[][] almost = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16 + 1e-9}};
+    assertFalse(new MatrixFilter(almost).isSeparable());
+    assertEquals(blur.apply(image), new MatrixFilter(almost).apply(image));
+  }
+
+  @Test
+  public void testSeparableMatrixFilterOfEvenSize() {
+    double[] even = {0.5, 0.5};
+    assertThrows(IllegalArgumentException.class, () -> new MatrixFilter(even, even));
+  }
+
+  @Test
+  public void testTiledMatrixFilter() {
+    double[][] gaussian = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+    int width = image.getWidth();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int tileSize : new int[]{1, 2, 3, TiledImage.DEFAULT_TILE_SIZE}) {
+      TiledImage tiled = new TiledImage(image.getHeight(), width, image.getMax(), tileSize);
+      for (int i = 0; i < image.getHeight(); i++) {
+        image.getRow(i, red, green, blue);
+        tiled.setRow(i, red, green, blue);
+      }
+      assertEquals(image, tiled);
+
+      Image blurred = new MatrixFilter(gaussian).apply(tiled);
+      assertTrue(blurred instanceof TiledImage);
+      assertEquals(new MatrixFilter(gaussian).apply(image), blurred);
+    }
+  }
+
+  @Test
+  public void testParallelFiltersMatchSequential() {
+    double[][] sharpen = {
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}};
+    double[][] sepia = {{0.393, 0.769, 0.189}, {0.349, 0.686, 0.168}, {0.272, 0.534, 0.131}};
+    Filter[] filters = {
+            new MatrixFilter(sharpen),
+            new MatrixFilter(new double[]{0.25, 0.5, 0.25}, new double[]{0.25, 0.5, 0.25}),
+            new ColorTransformer(sepia),
+            new PixelFilter(source -> x -> y -> new RGBPixel(source.getBlue(x, y),
+                    source.getRed(x, y), source.getGreen(x, y), source.getMax()))};
+    Image tiled = new TiledImage(image.getHeight(), image.getWidth(), image.getMax(), 1);
+    int width = image.getWidth();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, red, green, blue);
+      tiled.setRow(i, red, green, blue);
+    }
+
+    RowBands shared = RowBands.shared();
+    // A threshold of one pixel splits the images down to bands of one row
+    RowBands parallel = new RowBands(4, 1);
+    try {
+      for (Image input : new Image[]{image, tiled}) {
+        for (Filter filter : filters) {
+          RowBands.setShared(new RowBands(1, 1));
+          Image expected = filter.apply(input);
+          RowBands.setShared(parallel);
+          assertEquals(expected, filter.apply(input));
+        }
+      }
+    } finally {
+      RowBands.setShared(shared);
+      parallel.close();
+    }
+  }
+
+  @Test
+  public void testRowBandsOfInvalidThreshold() {
+    assertThrows(IllegalArgumentException.class, () -> new RowBands(2, 0));
+  }
+
+  @Test
+  public void testVectorBackendMatchesScalar() {
+    double[][] sharpen = {
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}};
+    double[][] sepia = {{0.393, 0.769, 0.189}, {0.349, 0.686, 0.168}, {0.272, 0.534, 0.131}};
+    Filter[] filters = {
+            new MatrixFilter(sharpen),
+            new MatrixFilter(new double[]{0.25, 0.5, 0.25}, new double[]{0.25, 0.5, 0.25}),
+            new ColorTransformer(sepia)};
+    // Wide enough for whole vectors and a scalar remainder on every row
+    Image wide = ImageStorage.HEAP.create(7, 37, 255);
+    for (int i = 0; i < wide.getHeight(); i++) {
+      for (int j = 0; j < wide.getWidth(); j++) {
+        wide.setRGB(i, j, (i * 31 + j * 7) % 256, (i * j) % 256, (i + 3 * j) % 256);
+      }
+    }
+
+    FilterBackend<?> shared = FilterBackend.shared();
+    try {
+      for (Image input : new Image[]{image, wide}) {
+        for (Filter filter : filters) {
+          FilterBackend.setShared(FilterBackend.fromName("scalar"));
+          Image expected = filter.apply(input);
+          FilterBackend.setShared(FilterBackend.fromName("vector"));
+          assertEquals(expected, filter.apply(input));
+        }
+      }
+    } finally {
+      FilterBackend.setShared(shared);
+    }
+  }
+
+  @Test
+  public void testFixedPointBackendWithinOneOfDoubles() {
+    double[][] sharpen = {
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}};
+    double[][] gaussian = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+    double[][] sepia = {{0.393, 0.769, 0.189}, {0.349, 0.686, 0.168}, {0.272, 0.534, 0.131}};
+    double[][] luma = {{0.2126, 0.7152, 0.0722}, {0.2126, 0.7152, 0.0722},
+        {0.2126, 0.7152, 0.0722}};
+    Filter[] filters = {new MatrixFilter(sharpen), new MatrixFilter(gaussian),
+        new MatrixFilter(sharpen, EdgeMode.MIRROR), new ColorTransformer(sepia),
+        new ColorTransformer(luma)};
+    Image noise = ImageStorage.HEAP.create(16, 19, 255);
+    for (int i = 0; i < noise.getHeight(); i++) {
+      for (int j = 0; j < noise.getWidth(); j++) {
+        noise.setRGB(i, j, (i * 97 + j * 31) % 256, (i * j * 13) % 256, (i * 7 + j * 59) % 256);
+      }
+    }
+    // The separable passes of tiled images keep their own rows of horizontal sums
+    Image tiled = new TiledImage(noise.getHeight(), noise.getWidth(), noise.getMax(), 8);
+    int[] red = new int[noise.getWidth()];
+    int[] green = new int[noise.getWidth()];
+    int[] blue = new int[noise.getWidth()];
+    for (int i = 0; i < noise.getHeight(); i++) {
+      noise.getRow(i, red, green, blue);
+      tiled.setRow(i, red, green, blue);
+    }
+
+    FilterBackend<?> shared = FilterBackend.shared();
+    try {
+      for (Image input : new Image[]{image, noise, tiled}) {
+        for (Filter filter : filters) {
+          FilterBackend.setShared(FilterBackend.fromName("scalar"));
+          Image expected = filter.apply(input);
+          FilterBackend.setShared(FilterBackend.fromName("fixed"));
+          Image actual = filter.apply(input);
+          for (int i = 0; i < input.getHeight(); i++) {
+            for (int j = 0; j < input.getWidth(); j++) {
+              assertTrue(Math.abs(expected.getRed(i, j) - actual.getRed(i, j)) <= 1);
+              assertTrue(Math.abs(expected.getGreen(i, j) - actual.getGreen(i, j)) <= 1);
+              assertTrue(Math.abs(expected.getBlue(i, j) - actual.getBlue(i, j)) <= 1);
+            }
+          }
+        }
+      }
+    } finally {
+      FilterBackend.setShared(shared);
+    }
+  }
+
+  @Test
+  public void testWeightsScaledOnce() {
+    FilterBackend.Weights weights = new FilterBackend.Weights(new double[]{0.25, 0.5, 0.25});
+    assertArrayEquals(new long[]{1 << 14, 1 << 15, 1 << 14}, weights.fixedPoint()[0]);
+    assertTrue(weights.fixedPoint() == weights.fixedPoint());
+  }
+
+  @Test
+  public void testUnknownFilterBackend() {
+    assertThrows(IllegalArgumentException.class, () -> FilterBackend.fromName("gpu"));
+  }
+
+  @Test
+  public void testMatrixFilterEdgeModes() {
+    // Each pixel takes the value of its left neighbour, the first pixel reads beyond the edge
+    double[][] left = {{0, 0, 0}, {1, 0, 0}, {0, 0, 0}};
+    int[][] expected = {{0, 10, 20}, {10, 10, 20}, {20, 10, 20}, {30, 10, 20}};
+    EdgeMode[] modes = {EdgeMode.ZERO, EdgeMode.CLAMP, EdgeMode.MIRROR, EdgeMode.WRAP};
+    for (ImageStorage storage : ImageStorage.values()) {
+      Image row = storage.create(1, 3, 255);
+      for (int j = 0; j < 3; j++) {
+        row.setRGB(0, j, 10 * (j + 1), 10 * (j + 1), 10 * (j + 1));
+      }
+      for (int m = 0; m < modes.length; m++) {
+        Image filtered = new MatrixFilter(left, modes[m]).apply(row);
+        Image separable = new MatrixFilter(new double[]{0, 1, 0}, new double[]{1, 0, 0}, modes[m])
+                .apply(row);
+        for (int j = 0; j < 3; j++) {
+          assertEquals(expected[m][j], filtered.getRed(0, j));
+          assertEquals(expected[m][j], separable.getBlue(0, j));
+        }
+      }
+    }
+    assertEquals(EdgeMode.MIRROR, EdgeMode.fromName("mirror"));
+  }
+
+  @Test
+  public void testMatrixFilterEdgeModesOnTheRows() {
+    // Each pixel takes the value of the pixel above it, the first row reads beyond the edge
+    double[][] up = {{0, 1, 0}, {0, 0, 0}, {0, 0, 0}};
+    Image column = new TiledImage(3, 1, 255, 2);
+    for (int i = 0; i < 3; i++) {
+      column.setRGB(i, 0, 10 * (i + 1), 0, 0);
+    }
+    assertEquals(0, new MatrixFilter(up, EdgeMode.ZERO).apply(column).getRed(0, 0));
+    assertEquals(10, new MatrixFilter(up, EdgeMode.CLAMP).apply(column).getRed(0, 0));
+    assertEquals(20, new MatrixFilter(up, EdgeMode.MIRROR).apply(column).getRed(0, 0));
+    assertEquals(30, new MatrixFilter(up, EdgeMode.WRAP).apply(column).getRed(0, 0));
+    assertEquals(20, new MatrixFilter(up, EdgeMode.WRAP).apply(column).getRed(2, 0));
+  }
+
+  @Test
+  public void testUnknownEdgeMode() {
+    assertThrows(IllegalArgumentException.class, () -> EdgeMode.fromName("reflect"));
+  }
+
+  @Test
+  public void testPointOperationTables() {
+    Image bytes = ImageStorage.HEAP.create(9, 11, 255);
+    Image ints = new RGBImage(9, 11, 255);
+    for (int i = 0; i < bytes.getHeight(); i++) {
+      for (int j = 0; j < bytes.getWidth(); j++) {
+        bytes.setRGB(i, j, (i * 29 + j * 3) % 256, (i * j * 7) % 256, (i + 23 * j) % 256);
+        ints.setRGB(i, j, bytes.getRed(i, j), bytes.getGreen(i, j), bytes.getBlue(i, j));
+      }
+    }
+
+    // 8 bit planes are mapped through the table directly, other images row by row
+    Filter brighten = new PointFilter(new ChannelOperation(channel -> channel + 100));
+    assertEquals(brighten.apply(ints), brighten.apply(bytes));
+
+    Image luma = new PointFilter(GreyscaleOperation.luma()).apply(bytes);
+    Image intensity = new PointFilter(GreyscaleOperation.intensity()).apply(bytes);
+    for (int i = 0; i < bytes.getHeight(); i++) {
+      for (int j = 0; j < bytes.getWidth(); j++) {
+        int red = bytes.getRed(i, j);
+        int green = bytes.getGreen(i, j);
+        int blue = bytes.getBlue(i, j);
+        assertEquals(new RGBPixel(red, green, blue, 255).getLuma(), luma.getGreen(i, j));
+        assertEquals((red + green + blue) / 3, intensity.getBlue(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testDitherStreamsRowsOfAnyMax() {
+    Image deep = new RGBImage(7, 9, 1000);
+    for (int i = 0; i < deep.getHeight(); i++) {
+      for (int j = 0; j < deep.getWidth(); j++) {
+        deep.setRGB(i, j, (i * 131 + j * 17) % 1001, (i * j * 7) % 1001, (i + 97 * j) % 1001);
+      }
+    }
+
+    // The rows are made grey on the fly, as a grey copy of the image would make them
+    Filter luma = new PointFilter(GreyscaleOperation.luma());
+    Image streamed = new DitherFilter(luma).apply(deep);
+    assertEquals(new DitherFilter(luma::apply).apply(deep), streamed);
+
+    // Pixels are black or the max value, whatever the max value of the image
+    boolean white = false;
+    for (int i = 0; i < streamed.getHeight(); i++) {
+      for (int j = 0; j < streamed.getWidth(); j++) {
+        int value = streamed.getRed(i, j);
+        assertTrue(value == 0 || value == 1000);
+        assertEquals(value, streamed.getGreen(i, j));
+        assertEquals(value, streamed.getBlue(i, j));
+        white |= value == 1000;
+      }
+    }
+    assertTrue(white);
+  }
+
+  @Test
+  public void testWavefrontDitherMatchesSequential() {
+    Filter dither = new DitherFilter(new PointFilter(GreyscaleOperation.luma()));
+    RowBands shared = RowBands.shared();
+    try {
+      RowBands.setShared(new RowBands(1, 1));
+      Image expected = dither.apply(image);
+      // Small thresholds make tiles of a few pixels, down to one row of two pixels
+      for (int threshold : new int[]{1, 8, 50}) {
+        try (RowBands parallel = new RowBands(4, threshold)) {
+          RowBands.setShared(parallel);
+          assertEquals(expected, dither.apply(image));
+        }
+      }
+    } finally {
+      RowBands.setShared(shared);
+    }
+  }
+
+  @Test
+  public void testOrderedDitherModes() {
+    Filter luma = new PointFilter(GreyscaleOperation.luma());
+    // With a max value of the number of cells of the map, a flat grey g turns exactly g cells
+    // white, whatever the order of the ranks
+    Object[][] maps = {{OrderedDitherFilter.bayer(luma, 4), 4},
+                       {OrderedDitherFilter.blueNoise(luma), 64}};
+    for (Object[] map : maps) {
+      Filter filter = (Filter) map[0];
+      int size = (Integer) map[1];
+      int cells = size * size;
+      for (int grey : new int[]{0, 1, cells / 3, cells / 2, cells - 1, cells}) {
+        Image flat = new RGBImage(size, size, cells);
+        for (int i = 0; i < size; i++) {
+          for (int j = 0; j < size; j++) {
+            flat.setRGB(i, j, grey, grey, grey);
+          }
+        }
+        Image result = filter.apply(flat);
+        int white = 0;
+        for (int i = 0; i < size; i++) {
+          for (int j = 0; j < size; j++) {
+            int value = result.getRed(i, j);
+            assertTrue(value == 0 || value == cells);
+            white += value / cells;
+          }
+        }
+        assertEquals(grey, white);
+      }
+    }
+
+    ime.dither("test", "test-bayer", DitherMode.BAYER);
+    Image bayer = ime.getImage("test-bayer");
+    assertEquals(image.getHeight(), bayer.getHeight());
+    assertEquals(image.getWidth(), bayer.getWidth());
+    assertEquals(DitherMode.BLUE_NOISE, DitherMode.fromName("blue-noise"));
+  }
+
+  @Test
+  public void testUnknownDitherMode() {
+    assertThrows(IllegalArgumentException.class, () -> DitherMode.fromName("halftone"));
+  }
+
+  @Test
+  public void testPixelKernelMatchesCurriedFunction() {
+    // Swaps the channels and mirrors the image, reading a pixel other than the one computed
+    Filter curried = new PixelFilter(source -> x -> y -> new RGBPixel(
+            source.getBlue(x, source.getWidth() - 1 - y), source.getRed(x, y),
+            source.getGreen(x, y) + 100, source.getMax()));
+    Filter kernel = new PixelFilter((source, x, y, red, green, blue) -> {
+      red[y] = source.getBlue(x, source.getWidth() - 1 - y);
+      green[y] = source.getRed(x, y);
+      blue[y] = source.getGreen(x, y) + 100;
+    });
+    assertEquals(curried.apply(image), kernel.apply(image));
+
+    // A kernel bound to an image computes what it needs from the image once
+    int[] bindings = new int[1];
+    Filter bound = new PixelFilter(new PixelKernel() {
+      @Override
+      public void apply(Image source, int x, int y, int[] red, int[] green, int[] blue) {
+        fail();
+      }
+
+      @Override
+      public PixelKernel forImage(Image source) {
+        bindings[0]++;
+        int max = source.getMax();
+        return (image, x, y, red, green, blue) -> {
+          red[y] = max - image.getRed(x, y);
+          green[y] = max - image.getGreen(x, y);
+          blue[y] = max - image.getBlue(x, y);
+        };
+      }
+    });
+    Image negative = bound.apply(image);
+    assertEquals(1, bindings[0]);
+    assertEquals(image.getMax() - image.getRed(0, 0), negative.getRed(0, 0));
+  }
+
+  @Test
+  public void testBoxBlurAveragesTheSquare() {
+    Image input = new RGBImage(11, 9, 255);
+    for (int i = 0; i < input.getHeight(); i++) {
+      for (int j = 0; j < input.getWidth(); j++) {
+        input.setRGB(i, j, (i * 41 + j * 7) % 256, (i * j * 13) % 256, (i + 29 * j) % 256);
+      }
+    }
+
+    // A box of radius 1 averages the 3x3 square around a pixel, edges given by the edge mode
+    for (EdgeMode edges : EdgeMode.values()) {
+      Image box = new BoxBlurFilter(edges, 1).apply(input);
+      for (int i = 0; i < input.getHeight(); i++) {
+        for (int j = 0; j < input.getWidth(); j++) {
+          int sum = 0;
+          for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+              int x = edges.map(i + dx, input.getHeight());
+              int y = edges.map(j + dy, input.getWidth());
+              sum += x < 0 || y < 0 ? 0 : input.getGreen(x, y);
+            }
+          }
+          // Each pass rounds its averages, so the result is within 1 of the exact average
+          assertTrue(Math.abs(sum / 9.0 - box.getGreen(i, j)) <= 1);
+        }
+      }
+    }
+
+    // A radius larger than the image still averages every pixel once per window
+    Image flat = new RGBImage(3, 4, 255);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 4; j++) {
+        flat.setRGB(i, j, 100, 200, 50);
+      }
+    }
+    assertEquals(flat, new BoxBlurFilter(EdgeMode.MIRROR, 40).apply(flat));
+    assertEquals(flat, BoxBlurFilter.gaussian(25, EdgeMode.CLAMP).apply(flat));
+    assertEquals(input, new BoxBlurFilter(EdgeMode.ZERO, 0).apply(input));
+
+    ime.boxBlur("test", "test-box-blur", 20);
+    ime.gaussianBlur("test", "test-gaussian-blur", 20);
+    assertEquals(image.getWidth(), ime.getImage("test-box-blur").getWidth());
+    assertEquals(image.getHeight(), ime.getImage("test-gaussian-blur").getHeight());
+  }
+
+  @Test
+  public void testBoxBlurOfNegativeRadius() {
+    assertThrows(IllegalArgumentException.class, () -> ime.boxBlur("test", "test-box-blur", -1));
+  }
+
+  @Test
+  public void testBlurOfTooLargeRadius() {
+    // The largest radius and sigma are accepted, anything beyond them is rejected
+    int radius = BoxBlurFilter.MAX_RADIUS;
+    assertEquals(image.getWidth(),
+            new BoxBlurFilter(EdgeMode.CLAMP, radius).apply(image).getWidth());
+    Filter widest = BoxBlurFilter.gaussian(BoxBlurFilter.MAX_SIGMA, EdgeMode.CLAMP);
+    assertEquals(image.getWidth(), widest.apply(image).getWidth());
+    assertThrows(IllegalArgumentException.class,
+            () -> ime.boxBlur("test", "test-box-blur", radius + 1));
+    assertThrows(IllegalArgumentException.class,
+            () -> ime.boxBlur("test", "test-box-blur", Integer.MAX_VALUE));
+    assertThrows(IllegalArgumentException.class,
+            () -> ime.gaussianBlur("test", "test-gaussian-blur", BoxBlurFilter.MAX_SIGMA + 0.5));
+    assertThrows(IllegalArgumentException.class,
+            () -> ime.gaussianBlur("test", "test-gaussian-blur", Double.POSITIVE_INFINITY));
+  }
+
+  @Test
+  public void testLargeKernelsThroughFft() {
+    Image input = new RGBImage(45, 38, 255);
+    for (int i = 0; i < input.getHeight(); i++) {
+      for (int j = 0; j < input.getWidth(); j++) {
+        input.setRGB(i, j, (i * 41 + j * 7) % 256, (i * j * 13) % 256, (i + 29 * j) % 256);
+      }
+    }
+    int size = MatrixFilter.FFT_THRESHOLD + 2;
+    int half = size / 2;
+    double[][] kernel = new double[size][size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        kernel[i][j] = ((i * 7 + j * 3) % 11 - 4) / (3.0 * size);
+      }
+    }
+
+    for (EdgeMode edges : EdgeMode.values()) {
+      MatrixFilter filter = new MatrixFilter(kernel, edges);
+      assertTrue(filter.usesFft());
+      Image result = filter.apply(input);
+      for (int x = 0; x < input.getHeight(); x++) {
+        for (int y = 0; y < input.getWidth(); y++) {
+          double sum = 0;
+          for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+              int px = edges.map(x - half + i, input.getHeight());
+              int py = edges.map(y - half + j, input.getWidth());
+              sum += px < 0 || py < 0 ? 0 : kernel[i][j] * input.getBlue(px, py);
+            }
+          }
+          int expected = Math.max(0, Math.min(255, (int) Math.round(sum)));
+          // The transforms round differently from the direct sums only next to a half
+          assertTrue(Math.abs(expected - result.getBlue(x, y)) <= 1);
+        }
+      }
+    }
+    assertFalse(new MatrixFilter(new double[MatrixFilter.FFT_THRESHOLD][
+            MatrixFilter.FFT_THRESHOLD]).usesFft());
+
+    int tooLarge = MatrixFilter.MAX_SIZE + 2;
+    assertThrows(IllegalArgumentException.class,
+            () -> new MatrixFilter(new double[tooLarge][tooLarge]));
+
+    ime.convolve("test", "test-convolve", kernel, EdgeMode.CLAMP);
+    assertEquals(image.getWidth(), ime.getImage("test-convolve").getWidth());
+    // The strips of a wide image share fewer bands so that their buffers fit
+    FftConvolution fft = new FftConvolution(new double[MatrixFilter.MAX_SIZE][
+            MatrixFilter.MAX_SIZE], EdgeMode.ZERO);
+    assertEquals(21, fft.bands(8000, 8000, Long.MAX_VALUE));
+    assertEquals(2, fft.bands(8000, 8000, 200_000_000));
+    assertEquals(1, fft.bands(8000, 8000, 0));
+  }
+
+  @Test
+  public void testRgbSplitInOnePass() {
+    ime.rgbSplit("test", "red", "green", "blue");
+    ime.redGreyscale("test", "red-greyscale");
+    ime.greenGreyscale("test", "green-greyscale");
+    ime.blueGreyscale("test", "blue-greyscale");
+    assertEquals(ime.getImage("red-greyscale"), ime.getImage("red"));
+    assertEquals(ime.getImage("green-greyscale"), ime.getImage("green"));
+    assertEquals(ime.getImage("blue-greyscale"), ime.getImage("blue"));
+
+    Image[] channels = ChannelSplit.split(image);
+    assertTrue(channels[0] instanceof GreyPlaneImage);
+    assertEquals(ImageRegistry.sizeOf(image) / 3, ImageRegistry.sizeOf(channels[0]));
+    assertTrue(ImageStorage.HEAP.createGrey(2, 3, 65536) instanceof GreyPlaneImage);
+    assertTrue(ImageStorage.OFF_HEAP.createGrey(2, 3, 255) instanceof SegmentImage);
+
+    // The split holds the channels until each lazy channel is evaluated or freed
+    ChannelSplit split = new ChannelSplit(image);
+    LazyImage red = split.lazyChannel(Channel.RED);
+    LazyImage green = split.lazyChannel(Channel.GREEN);
+    LazyImage blue = split.lazyChannel(Channel.BLUE);
+    AbstractImage redChannel = (AbstractImage) red.evaluate();
+    assertEquals(2, redChannel.holders());
+    green.release();
+    AbstractImage blueChannel = (AbstractImage) blue.evaluate();
+    assertEquals(1, redChannel.holders());
+    assertEquals(1, blueChannel.holders());
+    red.release();
+    assertEquals(0, redChannel.holders());
+  }
+
+  @Test
+  public void testGreyImageRejectsColour() {
+    assertThrows(IllegalArgumentException.class,
+        () -> ImageStorage.HEAP.createGrey(2, 3, 255).setRGB(1, 1, 10, 20, 10));
+    assertThrows(IllegalArgumentException.class,
+        () -> ImageStorage.OFF_HEAP.createGrey(2, 3, 255).setRGB(1, 1, 10, 20, 10));
+  }
+
+  @Test
+  public void testSplitChannelSpillsAsOnePlane() throws IOException {
+    Path spillDirectory = Files.createTempDirectory("ime-spill-test");
+    Image[] channels = ChannelSplit.split(image);
+    long channelSize = ImageRegistry.sizeOf(image) / 3;
+    ImageRegistry registry = new ImageRegistry(channelSize, spillDirectory);
+    registry.put("red", channels[0]);
+    registry.put("green", channels[1]);
+    assertEquals(1, registry.getSpills());
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      // The header of five ints and the one plane of bytes
+      assertEquals(5 * 4 + channelSize, Files.size(files.findFirst().get()));
+    }
+
+    Image red = registry.acquire("red");
+    assertTrue(red instanceof GreyPlaneImage);
+    assertEquals(channelSize, ImageRegistry.sizeOf(red));
+    assertEquals(channelSize, registry.getResidentBytes());
+    Image expected = ChannelSplit.split(image)[0];
+    assertEquals(expected, red);
+    red.release();
+    registry.remove("red").release();
+    // The green channel was spilled in turn to make room for the red one
+    assertEquals(2, registry.getSpills());
+    assertNull(registry.remove("green"));
+
+    // A channel of the off-heap storage holds one plane too, and is persisted as one
+    MIMEImp offHeapSession = new MIMEImp(ImageStorage.OFF_HEAP);
+    offHeapSession.readData(imageData(), "test");
+    Image offHeap = offHeapSession.getImage("test");
+    Image offHeapRed = ChannelSplit.split(offHeap)[0];
+    assertEquals(1, ImageRegistry.planesOf(offHeapRed));
+    assertEquals(channelSize, ImageRegistry.sizeOf(offHeapRed));
+    assertEquals(expected, offHeapRed);
+
+    Path directory = Files.createTempDirectory("ime-store-test");
+    MappedImageStore store = new MappedImageStore(directory);
+    Image persisted = store.persist("red", offHeapRed, ImageStorage.HEAP);
+    assertEquals(channelSize, Files.size(((MappedImage) persisted).getFile()));
+    persisted.release();
+    Image restored = new MappedImageStore(directory).restore(ImageStorage.HEAP).get("red");
+    assertEquals(1, ImageRegistry.planesOf(restored));
+    assertEquals(expected, restored);
+    restored.release();
+    offHeapRed.release();
+    offHeap.release();
+  }
+
+  @Test
+  public void testCombineCopiesPlanes() throws IOException {
+    ime.rgbSplit("test", "red", "green", "blue");
+    ime.rgbCombine("red", "green", "blue", "combined");
+    assertEquals(image, ime.getImage("combined"));
+
+    MIMEImp offHeap = new MIMEImp(ImageStorage.OFF_HEAP);
+    offHeap.readData(imageData(), "test");
+    offHeap.rgbSplit("test", "red", "green", "blue");
+    offHeap.rgbCombine("red", "green", "blue", "combined");
+    assertEquals(image, offHeap.getImage("combined"));
+
+    AbstractImage target = (AbstractImage) ImageStorage.HEAP.create(image.getHeight(),
+            image.getWidth(), image.getMax());
+    Image[] channels = ChannelSplit.split(image);
+    assertTrue(target.copyPlane(Channel.GREEN, channels[1], 0, image.getHeight()));
+    assertFalse(target.copyPlane(Channel.GREEN, new ChannelView(image, Channel.GREEN), 0,
+            image.getHeight()));
+    assertFalse(((AbstractImage) channels[0]).copyPlane(Channel.RED, target, 0, 1));
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        assertEquals(image.getGreen(i, j), target.getGreen(i, j));
+        assertEquals(0, target.getRed(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testHistogramAndStatistics() {
+    ime.lumaGreyscale("test", "test-luma");
+    Image luma = ime.getImage("test-luma");
+    long[][] expected = new long[4][image.getMax() + 1];
+    double redSum = 0;
+    int redMax = 0;
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        expected[0][image.getRed(i, j)]++;
+        expected[1][image.getGreen(i, j)]++;
+        expected[2][image.getBlue(i, j)]++;
+        expected[3][luma.getRed(i, j)]++;
+        redSum += image.getRed(i, j);
+        redMax = Math.max(redMax, image.getRed(i, j));
+      }
+    }
+
+    Map<String, long[]> histogram = ime.getHistogram("test");
+    assertArrayEquals(expected[0], histogram.get("red"));
+    assertArrayEquals(expected[1], histogram.get("green"));
+    assertArrayEquals(expected[2], histogram.get("blue"));
+    assertArrayEquals(expected[3], histogram.get("luma"));
+
+    Map<String, Double> red = ime.getStatistics("test").get("red");
+    assertEquals(redSum / (image.getHeight() * image.getWidth()), red.get("mean"), 1e-9);
+    assertEquals(redMax, red.get("max"), 0);
+    assertTrue(red.get("stddev") >= 0);
+
+    // Kept by the image until its pixels change
+    AbstractImage pixels = (AbstractImage) ImageStorage.HEAP.create(2, 2, 255);
+    ImageStatistics before = pixels.statistics();
+    assertTrue(before == pixels.statistics());
+    pixels.setRGB(0, 0, 9, 9, 9);
+    assertEquals(9.0, pixels.statistics().getStatistics().get("blue").get("max"), 0);
+  }
+
+  @Test
+  public void testRemove() {
+    ime.blur("test", "test-blur");
+    ime.remove("test-blur");
+    assertThrows(InputMismatchException.class, () -> ime.getImage("test-blur"));
+  }
+
+  @Test
+  public void testRegistrySpillsToDisk() throws IOException {
+    ImageRegistry registry = new ImageRegistry(ImageRegistry.sizeOf(image),
+            Files.createTempDirectory("ime-spill-test"));
+    MIMEImp bounded = new MIMEImp(ImageStorage.HEAP, registry);
+    bounded.readData(imageData(), "test");
+    bounded.sepia("test", "test-sepia");
+    ime.sepia("test", "test-sepia");
+
+    use(bounded, "test-sepia");
+    assertEquals(0, registry.getSpills());
+    use(bounded, "test");
+    assertEquals(1, registry.getSpills());
+    assertEquals(ImageRegistry.sizeOf(image), registry.getResidentBytes());
+
+    assertEquals(ime.getImage("test-sepia"), use(bounded, "test-sepia"));
+    assertEquals(image, use(bounded, "test"));
+    assertEquals(2, registry.getMisses());
+    assertEquals(3, registry.getSpills());
+    assertEquals(3, registry.getHits());
+
+    bounded.remove("test-sepia");
+    assertEquals(Long.valueOf(3), bounded.getRegistryMetrics().get("spills"));
+    assertTrue(registry.getResidentBytes() <= registry.getMaxBytes());
+  }
+
+  @Test
+  public void testSharedImageSpillsOnce() throws IOException {
+    Path spillDirectory = Files.createTempDirectory("ime-spill-test");
+    ImageRegistry registry = new ImageRegistry(ImageRegistry.sizeOf(image), spillDirectory);
+    MIMEImp bounded = new MIMEImp(ImageStorage.HEAP, registry);
+    bounded.readData(imageData(), "test");
+    bounded.readData(imageData(), "copy");
+    bounded.sepia("test", "test-sepia");
+
+    // Both names of the image are spilled into one file once the computed sepia is used
+    use(bounded, "test-sepia");
+    use(bounded, "test-sepia");
+    assertEquals(1, registry.getSpills());
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      assertEquals(1, files.count());
+    }
+    assertEquals(ImageRegistry.sizeOf(image), registry.getResidentBytes());
+
+    // And read back as one image
+    Image test = bounded.lookup("test");
+    Image copy = bounded.lookup("copy");
+    assertTrue(test == copy);
+    test.release();
+    copy.release();
+    assertEquals(image, use(bounded, "copy"));
+
+    // An image pinned by a view is not spilled, that would free nothing
+    ImageRegistry pinned = new ImageRegistry(ImageRegistry.sizeOf(image),
+            Files.createTempDirectory("ime-spill-test"));
+    MIMEImp viewed = new MIMEImp(ImageStorage.HEAP, pinned);
+    viewed.readData(imageData(), "test");
+    viewed.verticalFlip("test", "test-flip");
+    viewed.sepia("test", "test-sepia");
+    use(viewed, "test-sepia");
+    use(viewed, "test-sepia");
+    assertEquals(0, pinned.getSpills());
+  }
+
+  @Test
+  public void testResidentBytesAreCounted() {
+    long size = ImageRegistry.sizeOf(image);
+    ImageRegistry registry = new ImageRegistry();
+    MIMEImp session = new MIMEImp(ImageStorage.HEAP, registry);
+    session.readData(imageData(), "test");
+    session.readData(imageData(), "copy");
+    // A duplicate shares the image and is counted once
+    assertEquals(size, registry.getResidentBytes());
+
+    // A result counts once it is computed
+    session.sepia("test", "test-sepia");
+    assertEquals(size, registry.getResidentBytes());
+    use(session, "test-sepia");
+    assertEquals(2 * size, registry.getResidentBytes());
+
+    session.remove("test");
+    assertEquals(2 * size, registry.getResidentBytes());
+    session.remove("copy");
+    assertEquals(size, registry.getResidentBytes());
+    session.readData(imageData(), "test-sepia");
+    assertEquals(size, registry.getResidentBytes());
+    session.remove("test-sepia");
+    assertEquals(0, registry.getResidentBytes());
+  }
+
+  @Test
+  public void testPersistentStoreSurvivesRestart() throws IOException {
+    Path directory = Files.createTempDirectory("ime-store-test");
+    MIMEImp session = new MIMEImp(ImageStorage.HEAP, new ImageRegistry(),
+            new MappedImageStore(directory));
+    session.readData(imageData(), "test");
+    session.sepia("test", "test-sepia");
+    session.verticalFlip("test", "test-vertical");
+    session.blur("test", "test-unused");
+    ime.sepia("test", "test-sepia");
+    ime.verticalFlip("test", "test-vertical");
+    // Only the results that were computed are persisted, closing computes nothing
+    session.getImage("test-sepia");
+    session.close();
+    assertFalse(((LazyImage) session.lookup("test-unused")).isEvaluated());
+
+    MIMEImp restarted = new MIMEImp(ImageStorage.HEAP, new ImageRegistry(),
+            new MappedImageStore(directory));
+    assertTrue(restarted.getImage("test") instanceof MappedImage);
+    assertEquals(image, restarted.getImage("test"));
+    assertEquals(ime.getImage("test-sepia"), restarted.getImage("test-sepia"));
+    assertEquals(ime.getImage("test-vertical"), restarted.getImage("test-vertical"));
+    assertThrows(InputMismatchException.class, () -> restarted.getImage("test-unused"));
+
+    restarted.blur("test", "test-blur");
+    ime.blur("test", "test-blur");
+    assertEquals(ImageStorage.HEAP, restarted.getImage("test-blur").getStorage());
+    assertEquals(ime.getImage("test-blur"), restarted.getImage("test-blur"));
+
+    restarted.remove("test-sepia");
+    MIMEImp reopened = new MIMEImp(ImageStorage.HEAP, new ImageRegistry(),
+            new MappedImageStore(directory));
+    try {
+      reopened.getImage("test-sepia");
+      fail("Removed image should not be restored");
+    } catch (InputMismatchException e) {
+      assertEquals(image, reopened.getImage("test"));
+    }
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    ime.blur("test", "test-blur");
+    ime.dither("test", "test-dither");
+    Image blurred = ime.getImage("test-blur");
+    Image dithered = ime.getImage("test-dither");
+
+    MIMEImp shared = new MIMEImp(ImageStorage.HEAP, new ImageRegistry(ImageRegistry.sizeOf(image)
+            * 4, Files.createTempDirectory("ime-concurrent-test")));
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> requests = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      String name = "test" + (i % 4);
+      String result = name + "-" + i;
+      requests.add(pool.submit(() -> {
+        shared.readData(imageData(), name);
+        shared.blur(name, result + "-blur");
+        shared.dither(name, result + "-dither");
+        assertEquals(blurred, shared.getImage(result + "-blur"));
+        assertEquals(dithered, shared.getImage(result + "-dither"));
+        shared.remove(result + "-blur");
+        return null;
+      }));
+    }
+    for (Future<?> request : requests) {
+      request.get();
+    }
+    pool.shutdown();
+    assertEquals(68, shared.images.names().size());
+  }
+
+  @Test
+  public void testConcurrentWritesToAView() throws Exception {
+    ime.verticalFlip("test", "test-vertical");
+    Image vertical = ime.getImage("test-vertical");
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> writes = new ArrayList<>();
+    // Every thread writes its own rows, all of them land in the one copy of the view
+    for (int i = 0; i < image.getHeight(); i++) {
+      int row = i;
+      writes.add(pool.submit(() -> {
+        for (int j = 0; j < image.getWidth(); j++) {
+          vertical.setRGB(row, j, row, j, 7);
+        }
+      }));
+    }
+    for (Future<?> write : writes) {
+      write.get();
+    }
+    pool.shutdown();
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        assertEquals(i, vertical.getRed(i, j));
+        assertEquals(j, vertical.getGreen(i, j));
+      }
+    }
+    vertical.release();
+  }
+
+  @Test
+  public void testContentHash() {
+    Image copy = new RGBImage(image.getHeight(), image.getWidth(), image.getMax());
+    int[] red = new int[image.getWidth()];
+    int[] green = new int[image.getWidth()];
+    int[] blue = new int[image.getWidth()];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, red, green, blue);
+      copy.setRow(i, red, green, blue);
+    }
+    assertEquals(image.contentHash(), copy.contentHash());
+    assertEquals(image.hashCode(), copy.hashCode());
+
+    copy.setRGB(0, 0, image.getRed(0, 0) + 1, image.getGreen(0, 0), image.getBlue(0, 0));
+    assertNotEquals(image.contentHash(), copy.contentHash());
+    copy.setRGB(0, 0, image.getRed(0, 0), image.getGreen(0, 0), image.getBlue(0, 0));
+    assertEquals(image.contentHash(), copy.contentHash());
+  }
+
+  @Test
+  public void testDuplicatesShareOneImage() throws IOException {
+    ime.readData(imageData(), "test-again");
+    assertTrue(ime.getImage("test") == ime.getImage("test-again"));
+
+    ime.blur("test", "test-blur");
+    ime.blur("test-again", "test-again-blur");
+    assertTrue(((LazyImage) ime.getImage("test-blur")).evaluate()
+            == ime.getImage("test-again-blur"));
+    assertEquals(ImageRegistry.sizeOf(image) * 2, ime.images.getResidentBytes());
+
+    ime.remove("test");
+    ime.remove("test-blur");
+    assertEquals(image, ime.getImage("test-again"));
+    assertEquals(ime.getImage("test-again-blur"), new MatrixFilter(new double[][]{
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}}).apply(image));
+  }
+
+  @Test
+  public void testOperationsAreEvaluatedLazily() throws IOException {
+    ime.blur("test", "test-blur");
+    ime.sepia("test-blur", "test-blur-sepia");
+    ime.sharpen("test", "test-sharpen");
+
+    assertFalse(((LazyImage) ime.lookup("test-blur")).isEvaluated());
+    assertFalse(((LazyImage) ime.lookup("test-blur-sepia")).isEvaluated());
+
+    Image result = readImage(ime.writeData("test-blur-sepia"));
+    assertTrue(((LazyImage) ime.lookup("test-blur-sepia")).isEvaluated());
+    assertTrue(((LazyImage) ime.lookup("test-blur")).isEvaluated());
+    assertFalse(((LazyImage) ime.lookup("test-sharpen")).isEvaluated());
+
+    Image expected = new ColorTransformer(new double[][]{
+            {0.393, 0.769, 0.189},
+            {0.349, 0.686, 0.168},
+            {0.272, 0.534, 0.131}}).apply(new MatrixFilter(new double[][]{
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}}).apply(image));
+    assertEquals(expected, result);
+  }
+
+  @Test
+  public void testFusedPointOperations() throws IOException {
+    ime.brighten(40, "test", "test-bright");
+    ime.sepia("test-bright", "test-bright-sepia");
+    ime.lumaGreyscale("test-bright-sepia", "test-fused");
+    Image fused = readImage(ime.writeData("test-fused"));
+
+    // The intermediate results are fused into the last one and are never computed
+    assertFalse(((LazyImage) ime.lookup("test-bright")).isEvaluated());
+    assertFalse(((LazyImage) ime.lookup("test-bright-sepia")).isEvaluated());
+
+    ime.getImage("test-bright-sepia");
+    ime.lumaGreyscale("test-bright-sepia", "test-unfused");
+    assertEquals(ime.getImage("test-unfused"), fused);
+  }
+}
@@ -0,0 +1,88 @@
+package ime.model;
+
+/**
+ * Benchmark of the matrix filters on a 1500x1500 image, run by hand rather than by the build:
+ * <pre>
+ * mvn test-compile
+ * java --enable-preview --add-modules jdk.incubator.vector \
+ *     -cp target/classes:target/test-classes ime.model.MatrixFilterBenchmark
+ * </pre>
+ * It times the 3x3 blur, whose kernel is the product of a column and a row and so goes through
+ * the separable path, a 3x3 kernel that is not separable and goes through the unrolled 3x3 sums,
+ * and the 5x5 sharpen, which goes through the unrolled 5x5 sums. Each filter is timed with every
+ * backend, on one thread so that the times do not depend on the number of cores, after a few
+ * runs to warm up the JIT. The best of the timed runs is reported.
+ */
+public class MatrixFilterBenchmark {
+  private static final int SIZE = 1500;
+  private static final int WARMUP = 5;
+  private static final int RUNS = 10;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args not used
+   */
+  public static void main(String[] args) {
+    double[][] blur = {
+            {1.0 / 16, 1.0 / 8, 1.0 / 16},
+            {1.0 / 8, 1.0 / 4, 1.0 / 8},
+            {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+    double[][] edges = {
+            {-1, -1, -1},
+            {-1, 8, -1},
+            {-1, -1, -1}};
+    double[][] sharpen = {
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}};
+    Image image = ImageStorage.HEAP.create(SIZE, SIZE, 255);
+    for (int i = 0; i < SIZE; i++) {
+      for (int j = 0; j < SIZE; j++) {
+        image.setRGB(i, j, (i * 31 + j * 7) % 256, (i * j) % 256, (i + 3 * j) % 256);
+      }
+    }
+
+    MatrixFilter[] filters = {new MatrixFilter(blur), new MatrixFilter(edges),
+        new MatrixFilter(sharpen)};
+    String[] names = {"3x3 blur (separable)", "3x3 edges", "5x5 sharpen"};
+    RowBands shared = RowBands.shared();
+    FilterBackend<?> backend = FilterBackend.shared();
+    try (RowBands sequential = new RowBands(1, 1)) {
+      RowBands.setShared(sequential);
+      for (String backendName : new String[]{"scalar", "vector", "fixed"}) {
+        FilterBackend.setShared(FilterBackend.fromName(backendName));
+        for (int f = 0; f < filters.length; f++) {
+          System.out.printf("%-8s %-22s %6.1f ms%n", backendName, names[f],
+                  time(filters[f], image));
+        }
+      }
+    } finally {
+      RowBands.setShared(shared);
+      FilterBackend.setShared(backend);
+    }
+  }
+
+  /**
+   * Times a filter applied on an image.
+   *
+   * @param filter the filter
+   * @param image  the image
+   * @return the best time of the timed runs, in milliseconds
+   */
+  private static double time(Filter filter, Image image) {
+    for (int r = 0; r < WARMUP; r++) {
+      filter.apply(image).release();
+    }
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < RUNS; r++) {
+      long start = System.nanoTime();
+      Image result = filter.apply(image);
+      best = Math.min(best, System.nanoTime() - start);
+      result.release();
+    }
+    return best / 1e6;
+  }
+}